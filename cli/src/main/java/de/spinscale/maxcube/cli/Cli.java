@@ -24,6 +24,9 @@ import ch.qos.logback.core.OutputStreamAppender;
 import de.spinscale.maxcube.cli.renderer.CliRenderer;
 import de.spinscale.maxcube.cli.renderer.Renderer;
 import de.spinscale.maxcube.client.CubeClient;
+import de.spinscale.maxcube.client.CubeProxy;
+import de.spinscale.maxcube.client.RoomResult;
+import de.spinscale.maxcube.client.RoomTarget;
 import de.spinscale.maxcube.client.SocketCubeClient;
 import de.spinscale.maxcube.data.DurationParser;
 import de.spinscale.maxcube.discovery.DiscoveredCube;
@@ -41,10 +44,14 @@ import org.slf4j.LoggerFactory;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
 
 public class Cli {
 
@@ -55,7 +62,8 @@ public class Cli {
 
         // argument parsing
         io.airlift.airline.Cli.CliBuilder<Runnable> builder = io.airlift.airline.Cli.<Runnable>builder("eq3")
-                .withCommands(Help.class, Info.class, Discover.class, Version.class, Boost.class, Holiday.class)
+                .withCommands(Help.class, Info.class, Discover.class, Version.class, Boost.class, Holiday.class, Apply.class,
+                        Proxy.class)
                 .withDescription("Tool to manage Max!EQ3 cubes from the command line")
                 .withDefaultCommand(Help.class);
 
@@ -215,6 +223,46 @@ public class Cli {
         }
     }
 
+    @Command(name = "apply", description = "Send the commands of a plan file for many rooms over a single connection")
+    public static class Apply extends CubeHostCommand {
+
+        @Option(name = { "-f", "--file" } , description = "The plan file, one boost or holiday command per line", required = true)
+        public String file;
+
+        public void doRun(String host) throws Exception {
+            // exit early if the file cannot be read
+            List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+
+            try (CubeClient client = new SocketCubeClient(host)) {
+                Cube cube = client.connect();
+                List<RoomTarget> targets = Plan.parse(lines, cube, LocalDateTime.now());
+                for (RoomResult result : client.apply(targets)) {
+                    RoomTarget target = result.getTarget();
+                    String status = result.getFailure() == null ? result.getStatus().name()
+                            : result.getStatus() + " " + result.getFailure().getMessage();
+                    System.out.println(String.format(Locale.ROOT, "%-20s %-8s %s", target.getRoom().getName(),
+                            target.getMode(), status));
+                }
+            }
+        }
+    }
+
+    @Command(name = "proxy", description = "Share the connection to a cube between many clients")
+    public static class Proxy extends CubeHostCommand {
+
+        @Option(name = { "-p", "--port" } , description = "The local port for clients to connect to, defaults to 62910")
+        public Integer port = 62910;
+
+        public void doRun(String host) throws Exception {
+            try (CubeProxy proxy = new CubeProxy(host)) {
+                proxy.start(port);
+                System.out.println(String.format(Locale.ROOT, "Proxying cube [%s] on port [%s]", host, proxy.getPort()));
+                // runs until the process is stopped
+                new CountDownLatch(1).await();
+            }
+        }
+    }
+
     @Command(name = "version", description = "Display version and exit")
     public static class Version extends Eq3Command {
 
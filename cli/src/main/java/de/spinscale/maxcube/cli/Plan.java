@@ -0,0 +1,102 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.cli;
+
+import de.spinscale.maxcube.client.RoomTarget;
+import de.spinscale.maxcube.data.DurationParser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Room;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the commands of a plan file for {@code eq3 apply}, one room per line. Empty lines and lines starting with
+ * {@code #} are skipped, a {@code *} as room name stands for all rooms with a thermostat
+ *
+ * <pre>
+ * boost Bedroom
+ * holiday 2d 16 Living room
+ * holiday 12h 18 *
+ * </pre>
+ */
+public final class Plan {
+
+    private Plan() {
+    }
+
+    /**
+     * @param now   The start of all holiday durations
+     * @return The commands in the order of the file
+     */
+    public static List<RoomTarget> parse(List<String> lines, Cube cube, LocalDateTime now) {
+        List<RoomTarget> targets = new ArrayList<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                parseLine(line, cube, now, targets);
+            } catch (IllegalArgumentException e) {
+                String message = String.format(Locale.ROOT, "Line [%s] of the plan [%s]: %s", i + 1, line, e.getMessage());
+                throw new IllegalArgumentException(message, e);
+            }
+        }
+        return targets;
+    }
+
+    private static void parseLine(String line, Cube cube, LocalDateTime now, List<RoomTarget> targets) {
+        String[] fields = line.split("\\s+", 4);
+        String command = fields[0].toLowerCase(Locale.ROOT);
+        if ("boost".equals(command)) {
+            String roomName = line.substring(fields[0].length()).trim();
+            for (Room room : findRooms(cube, roomName)) {
+                targets.add(RoomTarget.boost(room));
+            }
+        } else if ("holiday".equals(command)) {
+            if (fields.length < 4) {
+                throw new IllegalArgumentException("Expected holiday <duration> <temperature> <room>");
+            }
+            LocalDateTime endTime = now.plus(DurationParser.parse(fields[1]));
+            int temperature = Integer.parseInt(fields[2]);
+            for (Room room : findRooms(cube, fields[3])) {
+                targets.add(RoomTarget.holiday(room, endTime, temperature));
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown command, must be boost or holiday");
+        }
+    }
+
+    private static List<Room> findRooms(Cube cube, String roomName) {
+        if (roomName.isEmpty()) {
+            throw new IllegalArgumentException("Room name is missing");
+        }
+        List<Room> rooms = new ArrayList<>();
+        if ("*".equals(roomName)) {
+            for (Room room : cube.getRooms()) {
+                if (room.getThermostatCount() > 0) {
+                    rooms.add(room);
+                }
+            }
+        } else {
+            rooms.add(cube.findRoom(roomName));
+        }
+        return rooms;
+    }
+}
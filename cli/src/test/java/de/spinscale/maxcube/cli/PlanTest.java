@@ -0,0 +1,93 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.cli;
+
+import de.spinscale.maxcube.cli.renderer.CubeTestCase;
+import de.spinscale.maxcube.client.RoomTarget;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+public class PlanTest extends CubeTestCase {
+
+    @Test
+    public void testParsePlan() {
+        Cube cube = createCube();
+        LocalDateTime now = LocalDateTime.of(2017, 2, 1, 12, 0);
+        List<String> lines = Arrays.asList(
+                "# shutdown",
+                "",
+                "boost Living room",
+                "  HOLIDAY 2d 16 Bedroom  ",
+                "holiday 12h 18 *");
+
+        List<RoomTarget> targets = Plan.parse(lines, cube, now);
+        assertThat(targets, hasSize(4));
+        assertThat(targets.get(0).getRoom().getName(), is("Living room"));
+        assertThat(targets.get(0).getMode(), is(Parser.Mode.BOOST));
+
+        assertThat(targets.get(1).getRoom().getName(), is("Bedroom"));
+        assertThat(targets.get(1).getMode(), is(Parser.Mode.VACATION));
+        assertThat(targets.get(1).getEndTime(), is(now.plusDays(2)));
+        assertThat(targets.get(1).getTemperature(), is(16));
+
+        // the storage room has no thermostat
+        assertThat(targets.get(2).getRoom().getName(), is("Living room"));
+        assertThat(targets.get(3).getRoom().getName(), is("Bedroom"));
+        assertThat(targets.get(3).getEndTime(), is(now.plusHours(12)));
+    }
+
+    @Test
+    public void testInvalidLinesAreReported() {
+        Cube cube = createCube();
+        String line = randomFrom(Arrays.asList("boost", "boost Kitchen", "holiday 2d Bedroom", "holiday 2x 16 Bedroom", "heat Bedroom"));
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> Plan.parse(Arrays.asList("boost Bedroom", line), cube, LocalDateTime.now()));
+        assertThat(e.getMessage(), containsString("Line [2] of the plan [" + line + "]"));
+    }
+
+    @Test
+    public void testEmptyPlan() {
+        assertThat(Plan.parse(Collections.singletonList("# nothing to do"), createCube(), LocalDateTime.now()), hasSize(0));
+    }
+
+    private Cube createCube() {
+        Cube cube = new Cube("KEQ0000001", 1, "1.1.3", LocalDateTime.now());
+        cube.getRooms().add(createRoom(1, "Living room", DeviceType.THERMOSTAST));
+        cube.getRooms().add(createRoom(2, "Storage", DeviceType.SHUTTER_CONTACT));
+        cube.getRooms().add(createRoom(3, "Bedroom", DeviceType.WALLTHERMOSTAT));
+        return cube;
+    }
+
+    private Room createRoom(int id, String name, DeviceType type) {
+        Room room = new Room(id, name, id * 10);
+        room.getDevices().add(new Device(type, name, "serial" + id, id * 10));
+        return room;
+    }
+}
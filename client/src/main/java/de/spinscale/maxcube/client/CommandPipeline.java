@@ -0,0 +1,210 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes commands to the cube without waiting for the reply of the previous one.
+ * The cube answers every command in the order it was received, so replies are matched
+ * to the oldest pending command expecting a reply of that type, i.e. {@code S:} for an
+ * {@code s:} command or {@code L:} for an {@code l:} command. Each command gets its own
+ * future, which fails if no reply arrived within its timeout. Frames are written as they are and not
+ * kept, so the buffer of a frame can be reused for the next one as soon as it has been sent.
+ *
+ * Once a command timed out, it is unknown which command a later reply belongs to. All pending
+ * commands fail then and the owner of the pipeline has to close the connection, otherwise every
+ * following reply would be matched to the wrong command.
+ */
+class CommandPipeline {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final FrameWriter writer;
+    private final ScheduledExecutorService scheduler;
+    private final Consumer<TimeoutException> timeoutHandler;
+    // held while queueing and writing a command, so commands are queued in the order they are written
+    private final Object writeLock = new Object();
+    // pending commands by the prefix of the expected reply, guarded by this
+    private final Map<String, Deque<PendingCommand>> pending = new HashMap<>();
+
+    /**
+     * @param timeoutHandler    Called after a command timed out and all pending commands failed, has to close the connection
+     */
+    CommandPipeline(FrameWriter writer, ScheduledExecutorService scheduler, Consumer<TimeoutException> timeoutHandler) {
+        this.writer = writer;
+        this.scheduler = scheduler;
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    /**
+     * Sends a frame to the cube and returns a future, that is completed with the raw reply line
+     * @param frame         The bytes from the position to the limit are sent, including the line delimiter
+     * @param replyPrefix   The prefix of the reply line, like {@code S:}
+     * @param timeout       The time to wait for the reply
+     * @return              A future completed with the reply or failed with a TimeoutException
+     */
+    CompletableFuture<String> send(ByteBuffer frame, String replyPrefix, Duration timeout) {
+        PendingCommand command = new PendingCommand(replyPrefix);
+        // the lock of this is not held while writing, so a blocked write does not block reading replies
+        synchronized (writeLock) {
+            int size;
+            synchronized (this) {
+                Deque<PendingCommand> commands = pending.computeIfAbsent(replyPrefix, prefix -> new ArrayDeque<>());
+                // enqueue before writing, the reply might be read before write() returns
+                commands.addLast(command);
+                size = commands.size();
+            }
+            // the writer consumes the frame, so it is decoded for logging beforehand
+            String sent = logger.isTraceEnabled() ? toString(frame) : null;
+            try {
+                writer.write(frame);
+            } catch (IOException e) {
+                remove(command);
+                command.future.completeExceptionally(e);
+                return command.future;
+            }
+            if (sent != null) {
+                logger.trace("Sent [{}], [{}] commands pending", sent, size);
+            }
+        }
+
+        ScheduledFuture<?> timeoutTask = scheduler.schedule(() -> onTimeout(command, timeout), timeout.toMillis(), TimeUnit.MILLISECONDS);
+        command.future.whenComplete((reply, e) -> timeoutTask.cancel(false));
+        return command.future;
+    }
+
+    /**
+     * Completes the oldest pending command waiting for this type of reply
+     * @return false if there was no command waiting for the reply
+     */
+    boolean onReply(String line) {
+        CompletableFuture<String> future = line.length() < 2 ? null : take(line.substring(0, 2));
+        if (future == null) {
+            logger.debug("Received [{}] without pending command", line);
+            return false;
+        }
+
+        logger.debug("Received reply [{}]", line);
+        // completing runs dependent stages like parsing, which should not block senders
+        future.complete(line);
+        return true;
+    }
+
+    /**
+     * Removes the oldest pending command waiting for this type of reply, for callers handling the reply on their
+     * own before completing the command. The command does not time out anymore once it was taken
+     * @return The future of the command or null, if there was no command waiting for the reply
+     */
+    synchronized CompletableFuture<String> take(String replyPrefix) {
+        Deque<PendingCommand> commands = pending.get(replyPrefix);
+        PendingCommand command = commands == null ? null : commands.pollFirst();
+        return command == null ? null : command.future;
+    }
+
+    /**
+     * Fails all pending commands, used when the connection to the cube is gone
+     */
+    void failAll(Throwable cause) {
+        List<PendingCommand> failed = new ArrayList<>();
+        synchronized (this) {
+            pending.values().forEach(failed::addAll);
+            pending.clear();
+        }
+        failed.forEach(command -> command.future.completeExceptionally(cause));
+    }
+
+    synchronized int size() {
+        return pending.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private void onTimeout(PendingCommand command, Duration timeout) {
+        List<PendingCommand> failed = new ArrayList<>();
+        synchronized (this) {
+            // the reply might have been taken from the queue, but the future is not completed yet
+            Deque<PendingCommand> commands = pending.get(command.replyPrefix);
+            if (commands == null || !commands.contains(command)) {
+                return;
+            }
+            pending.values().forEach(failed::addAll);
+            pending.clear();
+        }
+        String message = String.format(Locale.ROOT, "No [%s] reply within [%s]", command.replyPrefix, timeout);
+        TimeoutException e = new TimeoutException(message);
+        logger.debug("{}, failing [{}] pending commands", message, failed.size());
+        // closed before failing the commands, so callers can rely on the connection being closed
+        timeoutHandler.accept(e);
+        failed.forEach(failedCommand -> failedCommand.future.completeExceptionally(e));
+    }
+
+    private synchronized void remove(PendingCommand command) {
+        Deque<PendingCommand> commands = pending.get(command.replyPrefix);
+        if (commands != null) {
+            commands.removeLastOccurrence(command);
+        }
+    }
+
+    // frames are plain ASCII, the line delimiter is left out
+    private static String toString(ByteBuffer frame) {
+        int end = frame.limit();
+        while (end > frame.position() && (frame.get(end - 1) == '\r' || frame.get(end - 1) == '\n')) {
+            end--;
+        }
+        byte[] bytes = new byte[end - frame.position()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = frame.get(frame.position() + i);
+        }
+        return new String(bytes, US_ASCII);
+    }
+
+    @FunctionalInterface
+    interface FrameWriter {
+        /**
+         * Writes the bytes from the position to the limit of the frame, before returning
+         */
+        void write(ByteBuffer frame) throws IOException;
+    }
+
+    private static class PendingCommand {
+
+        private final String replyPrefix;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        PendingCommand(String replyPrefix) {
+            this.replyPrefix = replyPrefix;
+        }
+    }
+}
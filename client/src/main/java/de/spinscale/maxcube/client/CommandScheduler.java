@@ -0,0 +1,430 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.IntTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Paces the {@code s:} commands sent to a single cube, so its radio duty cycle stays below a configurable budget.
+ *
+ * The cube reports the used duty cycle in percent of the legal limit in its {@code H:} line and in the {@code S:}
+ * reply to every command, together with the number of free memory slots to queue commands. Once the duty cycle
+ * reaches 100, the cube rejects all commands. The duty cycle is calculated over the last hour, so between two
+ * reports this scheduler assumes it recovers linearly, and every command sent since the last report adds an
+ * estimated cost. Commands are queued until the projected duty cycle allows to send them.
+ *
+ * Every queued command uses duty cycle and a memory slot of the cube once it is sent, so commands for the same room
+ * are coalesced while they wait: a newer command replaces the queued one and an identical command is not queued twice.
+ *
+ * Waiting for the duty cycle to recover can take minutes, so the time a command may wait in the queue can be limited.
+ * Commands that are not expected to be sent in time fail right away, others fail once they waited too long.
+ */
+public class CommandScheduler {
+
+    // the duty cycle covers one hour, so one percent recovers every 36 seconds
+    static final long RECOVERY_NANOS_PER_PERCENT = TimeUnit.SECONDS.toNanos(36);
+    // a single s: command takes roughly a percent of the hourly budget, including retransmissions
+    static final int ESTIMATED_COST_PER_COMMAND = 1;
+    // leaves some headroom for the commands sent by other clients of the same cube
+    public static final int DEFAULT_DUTY_CYCLE_BUDGET = 90;
+    // room ids are a single byte, commands without a room are never coalesced
+    private static final int NO_ROOM = -1;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Parser parser = new Parser();
+    private final ScheduledExecutorService scheduler;
+    private final LongSupplier nanoTime;
+    private final Deque<QueuedCommand> queue = new ArrayDeque<>();
+    // the queued command of every room, that has one
+    private final IntTable<QueuedCommand> queuedByRoom = new IntTable<>();
+    private int dutyCycleBudget;
+    private long maxQueueWaitNanos = Long.MAX_VALUE;
+    private int reportedDutyCycle;
+    private int reportedFreeMemorySlots = Integer.MAX_VALUE;
+    private long reportedAt;
+    // commands sent since the last report, their cost is not part of the reported duty cycle yet
+    private int sentSinceReport;
+    private int inFlight;
+    private ScheduledFuture<?> retry;
+    private boolean draining;
+
+    /**
+     * @param scheduler         Used to send queued commands, once the duty cycle has recovered
+     * @param dutyCycleBudget   The maximum duty cycle in percent, that commands may use
+     */
+    public CommandScheduler(ScheduledExecutorService scheduler, int dutyCycleBudget) {
+        this(scheduler, dutyCycleBudget, System::nanoTime);
+    }
+
+    CommandScheduler(ScheduledExecutorService scheduler, int dutyCycleBudget, LongSupplier nanoTime) {
+        this.dutyCycleBudget = checkBudget(dutyCycleBudget);
+        this.scheduler = scheduler;
+        this.nanoTime = nanoTime;
+        this.reportedAt = nanoTime.getAsLong();
+    }
+
+    public void setDutyCycleBudget(int dutyCycleBudget) {
+        checkBudget(dutyCycleBudget);
+        synchronized (this) {
+            this.dutyCycleBudget = dutyCycleBudget;
+        }
+        drain();
+    }
+
+    private static int checkBudget(int dutyCycleBudget) {
+        if (dutyCycleBudget < 1 || dutyCycleBudget > 100) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Duty cycle budget [%s] must be between 1 and 100", dutyCycleBudget));
+        }
+        return dutyCycleBudget;
+    }
+
+    public synchronized int getDutyCycleBudget() {
+        return dutyCycleBudget;
+    }
+
+    /**
+     * Limits the time a command waits in the queue, before its future fails with a {@link TimeoutException}
+     * @param maxQueueWait  The maximum time to wait for the duty cycle budget or a free memory slot, null to wait
+     *                      as long as it takes
+     */
+    public void setMaxQueueWait(Duration maxQueueWait) {
+        synchronized (this) {
+            this.maxQueueWaitNanos = maxQueueWait == null ? Long.MAX_VALUE : maxQueueWait.toNanos();
+        }
+        drain();
+    }
+
+    /**
+     * Updates the duty cycle and the free memory slots, as reported by the cube in an {@code H:} or {@code S:} line
+     */
+    public void update(int dutyCycle, int freeMemorySlots) {
+        synchronized (this) {
+            reportedDutyCycle = dutyCycle;
+            reportedFreeMemorySlots = freeMemorySlots;
+            reportedAt = nanoTime.getAsLong();
+            sentSinceReport = 0;
+        }
+        drain();
+    }
+
+    /**
+     * Queues a command, it is sent as soon as the duty cycle budget and the free memory slots of the cube allow
+     * @param command   Sends the command and returns a future completed with the raw {@code S:} reply
+     * @return          A future completed with the parsed reply, after the scheduler has been updated from it, or
+     *                  failed with a {@link TimeoutException} if the command could not be sent within the max queue wait
+     */
+    public CompletableFuture<Parser.CommandResponse> submit(Supplier<CompletableFuture<String>> command) {
+        QueuedCommand queued = new QueuedCommand(NO_ROOM, null, command, nanoTime.getAsLong());
+        TimeoutException timeout;
+        synchronized (this) {
+            timeout = checkPredictedWait(null);
+            if (timeout == null) {
+                queue.addLast(queued);
+            }
+        }
+        if (timeout != null) {
+            queued.future.completeExceptionally(timeout);
+            return queued.future;
+        }
+        drain();
+        return queued.future;
+    }
+
+    /**
+     * Queues a command for a room, like {@link #submit(Supplier)}. While the command waits to be sent, a newer command
+     * for the same room takes its place in the queue and its future fails with a {@link CancellationException}.
+     * Submitting an equal key again does not queue a second command, both callers get the reply of the one sent
+     * @param roomId    The id of the room the command changes
+     * @param key       Describes what the command does, like a {@link RoomTarget}, to recognize identical commands
+     * @param command   Sends the command and returns a future completed with the raw {@code S:} reply
+     * @return          A future of this caller, completed with the parsed reply
+     */
+    public CompletableFuture<Parser.CommandResponse> submit(int roomId, Object key, Supplier<CompletableFuture<String>> command) {
+        if (roomId < 0) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Room id [%s] must not be negative", roomId));
+        }
+        CompletableFuture<Parser.CommandResponse> future;
+        CompletableFuture<Parser.CommandResponse> replaced = null;
+        synchronized (this) {
+            QueuedCommand queued = queuedByRoom.get(roomId);
+            if (queued == null) {
+                TimeoutException timeout = checkPredictedWait(key);
+                if (timeout != null) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(timeout);
+                    return future;
+                }
+                queued = new QueuedCommand(roomId, key, command, nanoTime.getAsLong());
+                queue.addLast(queued);
+                queuedByRoom.put(roomId, queued);
+                future = queued.future;
+            } else if (queued.key.equals(key)) {
+                logger.debug("Command [{}] for room [{}] is queued already", key, roomId);
+                // a future of its own, so completing it does not affect the other caller
+                return queued.future.thenApply(Function.identity());
+            } else {
+                logger.debug("Command [{}] for room [{}] replaces queued command [{}]", key, roomId, queued.key);
+                replaced = queued.future;
+                future = new CompletableFuture<>();
+                queued.replace(key, command, future, nanoTime.getAsLong());
+            }
+        }
+        if (replaced != null) {
+            replaced.completeExceptionally(new CancellationException(String.format(Locale.ROOT,
+                    "Replaced by command [%s] for room [%s] before it was sent", key, roomId)));
+        }
+        drain();
+        return future;
+    }
+
+    /**
+     * @return The number of commands waiting to be sent
+     */
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * @return The time until the last queued command can be sent, if the cube reports no other changes
+     */
+    public synchronized Duration getPredictedWait() {
+        if (queue.isEmpty()) {
+            return Duration.ZERO;
+        }
+        return Duration.ofNanos(Math.max(0, overBudgetNanos(queue.size())));
+    }
+
+    // the time until the last of this many commands fits into the budget, negative if they fit right now
+    private long overBudgetNanos(int commands) {
+        return projectedDutyCycleNanos() + (long) commands * ESTIMATED_COST_PER_COMMAND * RECOVERY_NANOS_PER_PERCENT
+                - (long) dutyCycleBudget * RECOVERY_NANOS_PER_PERCENT;
+    }
+
+    // a command behind all queued ones, that cannot be sent within the max queue wait, does not need to wait at all
+    private TimeoutException checkPredictedWait(Object key) {
+        long wait = overBudgetNanos(queue.size() + 1);
+        if (wait <= maxQueueWaitNanos) {
+            return null;
+        }
+        logger.debug("Command [{}] would wait [{}ms] for the duty cycle budget [{}]", key, TimeUnit.NANOSECONDS.toMillis(wait), dutyCycleBudget);
+        return new TimeoutException(String.format(Locale.ROOT, "Duty cycle budget [%s] does not allow sending within [%s], expected wait is [%s]",
+                dutyCycleBudget, Duration.ofNanos(maxQueueWaitNanos), Duration.ofNanos(wait)));
+    }
+
+    /**
+     * @return The duty cycle the cube is expected to report right now, including the commands sent since the last report
+     */
+    public synchronized int getProjectedDutyCycle() {
+        return (int) ((projectedDutyCycleNanos() + RECOVERY_NANOS_PER_PERCENT - 1) / RECOVERY_NANOS_PER_PERCENT);
+    }
+
+    // the projected duty cycle, expressed as the time it takes to recover from it
+    private long projectedDutyCycleNanos() {
+        long elapsed = nanoTime.getAsLong() - reportedAt;
+        long reported = Math.max(0, reportedDutyCycle * RECOVERY_NANOS_PER_PERCENT - elapsed);
+        return reported + sentSinceReport * ESTIMATED_COST_PER_COMMAND * RECOVERY_NANOS_PER_PERCENT;
+    }
+
+    // only a single thread sends at a time, so commands are written in the order they were submitted
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            List<QueuedCommand> ready = new ArrayList<>();
+            List<QueuedCommand> rejected = new ArrayList<>();
+            List<QueuedCommand> expired = new ArrayList<>();
+            RejectedExecutionException rejection = null;
+            long maxQueueWait;
+            synchronized (this) {
+                maxQueueWait = maxQueueWaitNanos;
+                while (!queue.isEmpty()) {
+                    long wait = overBudgetNanos(1);
+                    // without free slots only a single command is sent, its reply tells when slots are available again
+                    boolean slotsExhausted = inFlight > 0 && inFlight >= reportedFreeMemorySlots;
+                    if (wait <= 0 && !slotsExhausted) {
+                        QueuedCommand next = queue.pollFirst();
+                        if (next.roomId != NO_ROOM) {
+                            queuedByRoom.remove(next.roomId);
+                        }
+                        ready.add(next);
+                        sentSinceReport++;
+                        inFlight++;
+                        continue;
+                    }
+
+                    // commands are only given up while they cannot be sent, the next retry or reply expires the others
+                    long nextExpiry = expire(expired);
+                    if (wait > 0 && !queue.isEmpty()) {
+                        try {
+                            scheduleRetry(Math.min(wait, nextExpiry));
+                        } catch (RejectedExecutionException e) {
+                            // the client has been closed, nothing is going to be sent anymore
+                            rejection = e;
+                            rejected.addAll(queue);
+                            queue.clear();
+                            queuedByRoom.clear();
+                        }
+                    }
+                    break;
+                }
+                if (ready.isEmpty()) {
+                    draining = false;
+                }
+            }
+            for (QueuedCommand command : rejected) {
+                command.future.completeExceptionally(rejection);
+            }
+            for (QueuedCommand command : expired) {
+                command.future.completeExceptionally(new TimeoutException(String.format(Locale.ROOT,
+                        "Command [%s] was not sent within [%s]", command.key, Duration.ofNanos(maxQueueWait))));
+            }
+            if (ready.isEmpty()) {
+                return;
+            }
+            ready.forEach(this::send);
+        }
+    }
+
+    // removes the commands waiting longer than the max queue wait, returns the time until the next one expires
+    private long expire(List<QueuedCommand> expired) {
+        if (maxQueueWaitNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        long now = nanoTime.getAsLong();
+        long nextExpiry = Long.MAX_VALUE;
+        for (Iterator<QueuedCommand> iterator = queue.iterator(); iterator.hasNext(); ) {
+            QueuedCommand queued = iterator.next();
+            long remaining = maxQueueWaitNanos - (now - queued.queuedAt);
+            if (remaining > 0) {
+                nextExpiry = Math.min(nextExpiry, remaining);
+                continue;
+            }
+            iterator.remove();
+            if (queued.roomId != NO_ROOM) {
+                queuedByRoom.remove(queued.roomId);
+            }
+            expired.add(queued);
+        }
+        if (!expired.isEmpty()) {
+            logger.debug("[{}] commands expired after waiting [{}ms]", expired.size(), TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos));
+        }
+        return nextExpiry;
+    }
+
+    private void scheduleRetry(long delayNanos) {
+        // a retry without delay left is the one running right now, a later one is replaced to expire commands in time
+        if (retry != null && !retry.isDone() && retry.getDelay(TimeUnit.NANOSECONDS) > 0) {
+            if (retry.getDelay(TimeUnit.NANOSECONDS) <= delayNanos) {
+                return;
+            }
+            retry.cancel(false);
+        }
+        logger.debug("Duty cycle budget [{}] exhausted, [{}] commands queued, retrying in [{}ms]", dutyCycleBudget,
+                queue.size(), TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        retry = scheduler.schedule(this::drain, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void send(QueuedCommand queued) {
+        CompletableFuture<String> reply;
+        try {
+            reply = queued.command.get();
+        } catch (RuntimeException e) {
+            reply = new CompletableFuture<>();
+            reply.completeExceptionally(e);
+        }
+
+        reply.whenComplete((line, e) -> {
+            Parser.CommandResponse response = null;
+            Throwable failure = e;
+            if (failure == null) {
+                try {
+                    response = parser.parseCommandResponse(line);
+                } catch (RuntimeException parseException) {
+                    failure = parseException;
+                }
+            }
+
+            synchronized (this) {
+                inFlight--;
+                if (response != null) {
+                    reportedDutyCycle = response.getDutyCycle();
+                    reportedFreeMemorySlots = response.getFreeMemorySlots();
+                    reportedAt = nanoTime.getAsLong();
+                    // replies arrive in order, so only the commands sent later are not covered
+                    sentSinceReport = Math.min(sentSinceReport, inFlight);
+                }
+            }
+
+            if (failure != null) {
+                queued.future.completeExceptionally(failure);
+            } else {
+                queued.future.complete(response);
+            }
+            drain();
+        });
+    }
+
+    // only changed while queued and while holding the lock of the scheduler
+    private static class QueuedCommand {
+
+        private final int roomId;
+        private Object key;
+        private Supplier<CompletableFuture<String>> command;
+        private CompletableFuture<Parser.CommandResponse> future = new CompletableFuture<>();
+        private long queuedAt;
+
+        QueuedCommand(int roomId, Object key, Supplier<CompletableFuture<String>> command, long queuedAt) {
+            this.roomId = roomId;
+            this.key = key;
+            this.command = command;
+            this.queuedAt = queuedAt;
+        }
+
+        // the newer command takes the place in the queue, but waits no longer than any other command
+        void replace(Object key, Supplier<CompletableFuture<String>> command, CompletableFuture<Parser.CommandResponse> future, long queuedAt) {
+            this.key = key;
+            this.command = command;
+            this.future = future;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
@@ -20,11 +20,19 @@ import de.spinscale.maxcube.entities.Room;
 
 import java.io.Closeable;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 
 public interface CubeClient extends Closeable {
 
     Cube connect() throws Exception;
 
+    /**
+     * Reads the current state of all devices over the already open connection
+     * @return The cube returned by {@link #connect()} with updated temperatures, valve positions and modes
+     */
+    Cube refresh() throws Exception;
+
     /**
      * Boosts the room for the standard configure time
      * @param room The room to boost
@@ -40,4 +48,23 @@ public interface CubeClient extends Closeable {
      * @return              true if the command was send successfully, false otherwise
      */
     boolean holiday(Room room, LocalDateTime endTime, int temperature) throws Exception;
+
+    /**
+     * Sends the commands for many rooms over the open connection. A failing room does not stop the remaining ones
+     * @param targets   The commands to send, in this order
+     * @return          The result for every target, in the order of the targets
+     */
+    default List<RoomResult> apply(List<RoomTarget> targets) throws Exception {
+        List<RoomResult> results = new ArrayList<>(targets.size());
+        for (RoomTarget target : targets) {
+            try {
+                results.add(RoomResult.of(target, target.sendTo(this)));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                results.add(RoomResult.failed(target, e));
+            }
+        }
+        return results;
+    }
 }
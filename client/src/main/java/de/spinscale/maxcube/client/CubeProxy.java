@@ -0,0 +1,381 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.codec.textline.LineDelimiter;
+import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A cube only accepts a single client at a time. The proxy holds one connection to the cube and accepts any number
+ * of clients, which can connect to it like to a cube. New clients are served the cached {@code H:}, {@code M:},
+ * {@code C:} and {@code L:} lines right away, their {@code s:} and {@code l:} commands are sent over the single
+ * connection to the cube in the order they were received and the replies are routed back.
+ *
+ * The cached lines are kept up to date with the replies: an {@code L:} reply replaces the device list and an
+ * {@code S:} reply updates the duty cycle and free memory slots of the header. If the connection to the cube is
+ * lost, all clients are disconnected and the next client to connect triggers a new connection.
+ */
+public class CubeProxy implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final String hostname;
+    private final int port;
+    private final NioSocketConnector connector;
+    private final NioSocketAcceptor acceptor;
+    private final ScheduledExecutorService scheduler;
+    private final CommandPipeline pipeline;
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration commandTimeout = Duration.ofSeconds(5);
+    // guarded by this
+    private IoSession upstream;
+    private CompletableFuture<Void> ready;
+    private List<String> connectLines;
+    private volatile List<String> snapshot = Collections.emptyList();
+
+    public CubeProxy(String hostname) {
+        this(hostname, 62910);
+    }
+
+    /**
+     * @param hostname  The host of the cube
+     * @param port      The port of the cube
+     */
+    public CubeProxy(String hostname, int port) {
+        this.hostname = hostname;
+        this.port = port;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cube-proxy-" + hostname);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pipeline = new CommandPipeline(this::writeUpstream, scheduler, this::onCommandTimeout);
+
+        this.connector = new NioSocketConnector(1);
+        connector.setConnectTimeoutMillis(2000);
+        connector.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory()));
+        connector.setHandler(new UpstreamHandler());
+
+        this.acceptor = new NioSocketAcceptor(1);
+        acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory()));
+        acceptor.setHandler(new DownstreamHandler());
+        acceptor.setReuseAddress(true);
+        acceptor.setCloseOnDeactivation(true);
+    }
+
+    /**
+     * The time to wait for the cube to send all rooms and devices after connecting
+     */
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * The time to wait for the cube to reply to a command of a client
+     */
+    public void setCommandTimeout(Duration commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * Listens for clients and connects to the cube, without waiting for the connection to be established
+     * @param localPort The port to listen on, 0 picks a free one
+     */
+    public void start(int localPort) throws IOException {
+        acceptor.bind(new InetSocketAddress(localPort));
+        logger.info("Proxying cube [{}:{}] on [{}]", hostname, port, acceptor.getLocalAddress());
+        connectUpstream().whenComplete((v, e) -> {
+            if (e != null) {
+                logger.warn("Could not connect to cube [{}:{}]: {}", hostname, port, e.getMessage());
+            }
+        });
+    }
+
+    public int getPort() {
+        return acceptor.getLocalAddress().getPort();
+    }
+
+    /**
+     * @return The number of connected clients
+     */
+    public int getClientCount() {
+        return acceptor.getManagedSessionCount();
+    }
+
+    /**
+     * @return The lines sent to a newly connected client, empty if the cube has not sent them yet
+     */
+    public List<String> getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return A future completed once the cube has sent its rooms and devices, connecting if needed
+     */
+    synchronized CompletableFuture<Void> connectUpstream() {
+        if (ready != null && (!ready.isDone() || (!ready.isCompletedExceptionally() && upstream != null))) {
+            return ready;
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        ready = future;
+        connectLines = new ArrayList<>();
+        InetSocketAddress endpoint = new InetSocketAddress(hostname, port);
+        logger.debug("Connecting to {}", endpoint);
+        ConnectFuture connectFuture = connector.connect(endpoint, (session, f) -> {
+            synchronized (this) {
+                upstream = session;
+            }
+        });
+        connectFuture.addListener(f -> {
+            if (!connectFuture.isConnected()) {
+                future.completeExceptionally(connectFuture.getException());
+            }
+        });
+
+        String message = String.format(Locale.ROOT, "Cube [%s] did not send its configuration within [%s]", endpoint, connectTimeout);
+        ScheduledFuture<?> timeoutTask = scheduler.schedule(() -> future.completeExceptionally(new TimeoutException(message)),
+                connectTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        future.whenComplete((v, e) -> {
+            timeoutTask.cancel(false);
+            if (e != null) {
+                connectFuture.cancel();
+                closeUpstream(future);
+            }
+        });
+        return future;
+    }
+
+    private synchronized void closeUpstream(CompletableFuture<Void> failed) {
+        if (ready == failed && upstream != null) {
+            upstream.closeNow();
+            upstream = null;
+        }
+    }
+
+    // the session writes asynchronously, so the frame is copied into a buffer of its own
+    private void writeUpstream(ByteBuffer frame) throws IOException {
+        IoSession session;
+        synchronized (this) {
+            session = upstream;
+        }
+        if (session == null || !session.isConnected()) {
+            throw new IOException("Session to " + hostname + " is not connected");
+        }
+        session.write(IoBuffer.allocate(frame.remaining()).put(frame).flip());
+    }
+
+    // later replies cannot be matched to the clients anymore, closing the session disconnects all clients
+    private void onCommandTimeout(TimeoutException e) {
+        IoSession session;
+        synchronized (this) {
+            session = upstream;
+        }
+        if (session != null) {
+            logger.warn("Closing the connection to cube [{}:{}]: {}", hostname, port, e.getMessage());
+            session.closeNow();
+        }
+    }
+
+    // runs on the processor thread of the upstream session
+    private void onUpstreamLine(IoSession session, String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+
+        CompletableFuture<Void> completed = null;
+        boolean isReply = false;
+        synchronized (this) {
+            if (session != upstream) {
+                // a late line of a connection that was closed already
+                return;
+            } else if (!ready.isDone()) {
+                connectLines.add(line);
+                if (line.startsWith("L:")) {
+                    snapshot = Collections.unmodifiableList(new ArrayList<>(connectLines));
+                    completed = ready;
+                }
+            } else {
+                updateSnapshot(line);
+                isReply = true;
+            }
+        }
+
+        if (completed != null) {
+            logger.debug("Cached [{}] lines of cube [{}]", snapshot.size(), hostname);
+            completed.complete(null);
+        } else if (isReply) {
+            pipeline.onReply(line);
+        }
+    }
+
+    // the lock must be held
+    private void updateSnapshot(String line) {
+        List<String> lines = new ArrayList<>(snapshot);
+        if (line.startsWith("L:")) {
+            lines.set(lines.size() - 1, line);
+        } else if (line.startsWith("S:") && !lines.isEmpty()) {
+            // S:duty cycle,accepted,free memory slots goes into the sixth and seventh field of the header
+            String[] reply = line.substring(2).split(",");
+            String[] header = lines.get(0).split(",", -1);
+            if (reply.length >= 3 && header.length > 6) {
+                header[5] = reply[0];
+                header[6] = reply[2];
+                lines.set(0, String.join(",", header));
+            }
+        } else {
+            return;
+        }
+        snapshot = Collections.unmodifiableList(lines);
+    }
+
+    private void onUpstreamClosed(IoSession session, Throwable cause) {
+        synchronized (this) {
+            if (upstream != session) {
+                return;
+            }
+            upstream = null;
+            ready.completeExceptionally(cause);
+        }
+        logger.info("Connection to cube [{}:{}] was closed, disconnecting [{}] clients", hostname, port, getClientCount());
+        pipeline.failAll(cause);
+        acceptor.getManagedSessions().values().forEach(IoSession::closeNow);
+    }
+
+    private void forward(IoSession client, String frame, String replyPrefix) {
+        // the codec passes buffers through as they are, so the line delimiter is part of the frame
+        ByteBuffer bytes = ByteBuffer.wrap((frame + "\r\n").getBytes(UTF_8));
+        pipeline.send(bytes, replyPrefix, commandTimeout).whenComplete((reply, e) -> {
+            if (e != null) {
+                // the client runs into its own timeout, like it would with the cube
+                logger.debug("Command [{}] of client [{}] failed: {}", frame, client.getRemoteAddress(), e.getMessage());
+            } else if (client.isConnected()) {
+                client.write(reply);
+            }
+        });
+    }
+
+    private static TextLineCodecFactory codecFactory() {
+        TextLineCodecFactory codecFactory = new TextLineCodecFactory(UTF_8, LineDelimiter.CRLF, LineDelimiter.AUTO);
+        codecFactory.setDecoderMaxLineLength(64 * 1024);
+        codecFactory.setEncoderMaxLineLength(64 * 1024);
+        return codecFactory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // disposing an acceptor, that still has sessions, might wait forever for its processor
+        acceptor.unbind();
+        acceptor.getManagedSessions().values().forEach(client -> client.closeNow().awaitUninterruptibly(1000));
+        acceptor.dispose(true);
+        IoSession session;
+        synchronized (this) {
+            session = upstream;
+            upstream = null;
+        }
+        if (session != null) {
+            session.write("q:");
+            session.closeOnFlush().awaitUninterruptibly(2000);
+        }
+        connector.dispose(true);
+        scheduler.shutdownNow();
+    }
+
+    private class UpstreamHandler extends IoHandlerAdapter {
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            logger.trace("Reading input line: [{}]", message);
+            onUpstreamLine(session, (String) message);
+        }
+
+        @Override
+        public void sessionClosed(IoSession session) throws Exception {
+            onUpstreamClosed(session, new EOFException("Session to " + hostname + " was closed"));
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            logger.error("Exception in session to cube [{}]", session.getRemoteAddress(), cause);
+            onUpstreamClosed(session, cause);
+            session.closeNow();
+        }
+    }
+
+    private class DownstreamHandler extends IoHandlerAdapter {
+
+        @Override
+        public void sessionOpened(IoSession session) throws Exception {
+            logger.debug("Client connected from [{}]", session.getRemoteAddress());
+            connectUpstream().whenComplete((v, e) -> {
+                if (e != null) {
+                    logger.debug("Disconnecting client [{}], cube is not available: {}", session.getRemoteAddress(), e.getMessage());
+                    session.closeNow();
+                } else {
+                    snapshot.forEach(session::write);
+                }
+            });
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            String line = message.toString().trim();
+            if (line.startsWith("s:")) {
+                forward(session, line, "S:");
+            } else if (line.startsWith("l:")) {
+                forward(session, line, "L:");
+            } else if (line.startsWith("q:")) {
+                // only this client quits, the connection to the cube stays open
+                session.closeOnFlush();
+            } else if (!line.isEmpty()) {
+                logger.debug("Ignoring unsupported command [{}] from [{}]", line, session.getRemoteAddress());
+            }
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            logger.warn("Exception in session from [{}]", session.getRemoteAddress(), cause);
+            session.closeNow();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.DeviceRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+/**
+ * Polls many cubes concurrently in a configurable interval and keeps the latest {@link Cube} per host.
+ *
+ * Every poll uses a blocking {@link SocketCubeClient}. Polls run on virtual threads if the JVM supports them,
+ * otherwise on a bounded pool of platform threads. Each poll has a deadline, after which its connection is closed,
+ * so a dead cube cannot delay the others
+ */
+public class FleetPoller implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FleetPoller.class);
+
+    private final Set<String> hosts;
+    private final Duration interval;
+    private final Duration deadline;
+    private final BiFunction<String, ScheduledExecutorService, CubeClient> clientFactory;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService executor;
+    // closes the clients of polls that reached their deadline, so the shared scheduler never waits for a close
+    private final ExecutorService closeExecutor;
+    private final Map<String, Cube> cubes = new ConcurrentHashMap<>();
+    private final Map<String, Exception> failures = new ConcurrentHashMap<>();
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final DeviceRegistry registry = new DeviceRegistry();
+    private ScheduledFuture<?> schedule;
+
+    /**
+     * @param hosts     The hosts of the cubes to poll
+     * @param interval  The time between the start of two polls of the same cube
+     * @param deadline  The maximum time a single poll may take
+     */
+    public FleetPoller(List<String> hosts, Duration interval, Duration deadline) {
+        // configurations are decoded on the thread of each poll, the polls themselves run in parallel
+        this(hosts, interval, deadline, 64, (host, scheduler) -> new SocketCubeClient(host, 62910, scheduler));
+    }
+
+    /**
+     * @param maxPlatformThreads    The number of concurrent polls, if virtual threads are not available
+     * @param clientFactory         Creates a client for a host, may use the passed scheduler for command timeouts
+     */
+    public FleetPoller(List<String> hosts, Duration interval, Duration deadline, int maxPlatformThreads,
+                       BiFunction<String, ScheduledExecutorService, CubeClient> clientFactory) {
+        if (deadline.compareTo(interval) > 0) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Deadline [%s] must not exceed interval [%s]", deadline, interval));
+        }
+        this.hosts = Collections.unmodifiableSet(new LinkedHashSet<>(hosts));
+        this.interval = interval;
+        this.deadline = deadline;
+        this.clientFactory = clientFactory;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("fleet-scheduler"));
+        this.executor = newPollExecutor(maxPlatformThreads);
+        // all threads of a bounded pool might be blocked by the very polls to close, so it cannot close them itself
+        this.closeExecutor = executor instanceof ThreadPoolExecutor
+                ? Executors.newCachedThreadPool(daemonThreadFactory("fleet-closer")) : executor;
+    }
+
+    /**
+     * Starts polling all cubes in the background
+     */
+    public synchronized void start() {
+        if (schedule != null) {
+            throw new IllegalStateException("Poller has already been started");
+        }
+        schedule = scheduler.scheduleAtFixedRate(this::pollAll, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls all cubes once. Cubes, which are still being polled from the previous round, are skipped
+     * @return A future, that completes when all polls have finished or reached their deadline
+     */
+    public CompletableFuture<Void> pollAll() {
+        List<CompletableFuture<Void>> polls = new ArrayList<>(hosts.size());
+        for (String host : hosts) {
+            if (!inFlight.add(host)) {
+                logger.debug("Skipping [{}], previous poll is still running", host);
+                continue;
+            }
+            polls.add(CompletableFuture.runAsync(() -> poll(host), executor).whenComplete((v, e) -> inFlight.remove(host)));
+        }
+        return CompletableFuture.allOf(polls.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private void poll(String host) {
+        long start = System.nanoTime();
+        CubeClient client = clientFactory.apply(host, scheduler);
+        AtomicBoolean deadlineReached = new AtomicBoolean(false);
+        // closing the client unblocks the socket, the poll fails right after. The scheduler also times out the commands
+        // of all clients, so it only hands the close over, which might wait for the reader thread of the client
+        ScheduledFuture<?> deadlineTask = scheduler.schedule(() -> {
+            deadlineReached.set(true);
+            try {
+                closeExecutor.execute(() -> closeQuietly(host, client));
+            } catch (RejectedExecutionException e) {
+                // the poller is being closed
+                closeQuietly(host, client);
+            }
+        }, deadline.toMillis(), TimeUnit.MILLISECONDS);
+
+        try {
+            Cube cube = client.connect();
+            cubes.put(host, cube);
+            registry.register(cube);
+            failures.remove(host);
+            logger.debug("Polled [{}] in [{}ms]", host, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (Exception e) {
+            Exception failure = e;
+            if (deadlineReached.get()) {
+                failure = new TimeoutException(String.format(Locale.ROOT, "Polling [%s] exceeded deadline of [%s]", host, deadline));
+            }
+            failures.put(host, failure);
+            logger.info("Polling [{}] failed: {}", host, failure.getMessage());
+        } finally {
+            deadlineTask.cancel(false);
+            closeQuietly(host, client);
+        }
+    }
+
+    /**
+     * @return The most recently polled cube of the host, empty if the host has never been polled successfully
+     */
+    public Optional<Cube> getCube(String host) {
+        return Optional.ofNullable(cubes.get(host));
+    }
+
+    /**
+     * @return The most recently polled cube of all hosts
+     */
+    public Map<String, Cube> getCubes() {
+        return Collections.unmodifiableMap(cubes);
+    }
+
+    /**
+     * @return The devices of all successfully polled cubes by their rf address
+     */
+    public DeviceRegistry getDeviceRegistry() {
+        return registry;
+    }
+
+    /**
+     * @return The failure of the last poll of the host, empty if the last poll succeeded
+     */
+    public Optional<Exception> getFailure(String host) {
+        return Optional.ofNullable(failures.get(host));
+    }
+
+    @Override
+    public synchronized void close() {
+        if (schedule != null) {
+            schedule.cancel(false);
+        }
+        executor.shutdownNow();
+        closeExecutor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private static void closeQuietly(String host, CubeClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.trace("Closing client for [{}] failed", host, e);
+        }
+    }
+
+    // virtual threads are only available from java 21 on, so we need to use reflection
+    static ExecutorService newPollExecutor(int maxPlatformThreads) {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            ExecutorService executor = (ExecutorService) method.invoke(null);
+            logger.debug("Polling on virtual threads");
+            return executor;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Virtual threads not available, polling with up to [{}] threads", maxPlatformThreads);
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxPlatformThreads, maxPlatformThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), daemonThreadFactory("fleet-poller"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
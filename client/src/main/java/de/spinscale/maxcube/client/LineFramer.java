@@ -0,0 +1,155 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Splits the bytes read from a channel into lines, terminated by LF or CRLF, without copying them.
+ *
+ * Bytes are read into a direct buffer, that is reused for every line. A frame returned by {@link #nextFrame()} is a
+ * view on that buffer, only valid until the next call to this framer. Lines longer than the maximum frame size fail
+ * with an {@link IOException}, so a broken peer cannot make the client buffer without limit.
+ *
+ * Works with blocking channels through {@link #readFrame(ReadableByteChannel)} and with non-blocking channels by
+ * calling {@link #fill(ReadableByteChannel)} whenever the channel is readable, followed by {@link #nextFrame()} until
+ * it returns null. An instance must not be shared between threads
+ */
+public final class LineFramer {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 64 * 1024;
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer frame;
+    private final int maxFrameSize;
+    // start of the first line, that has not been returned yet
+    private int frameStart;
+    // everything between the frame start and this position is known to contain no line feed
+    private int scanned;
+    private byte[] scratch = new byte[256];
+
+    public LineFramer() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    /**
+     * @param maxFrameSize  The maximum length of a line, including its line terminator
+     */
+    public LineFramer(int maxFrameSize) {
+        if (maxFrameSize < 2) {
+            throw new IllegalArgumentException("Maximum frame size must be at least 2, was [" + maxFrameSize + "]");
+        }
+        this.maxFrameSize = maxFrameSize;
+        this.buffer = ByteBuffer.allocateDirect(maxFrameSize);
+        this.frame = buffer.duplicate();
+    }
+
+    /**
+     * Reads as many bytes as fit into the buffer, as far as the channel has any
+     * @return The number of bytes read, zero if a non-blocking channel has nothing to read, -1 at the end of the stream
+     * @throws IOException If the buffer is full, but does not contain a complete line
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        compact();
+        if (!buffer.hasRemaining()) {
+            String message = String.format(Locale.ROOT, "Line exceeds the maximum frame size of [%s] bytes", maxFrameSize);
+            throw new IOException(message);
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * @return The next complete line without its terminator, null if the buffered bytes do not contain a complete line
+     */
+    public ByteBuffer nextFrame() {
+        int end = buffer.position();
+        for (int i = scanned; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                int limit = i > frameStart && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                frame.limit(limit).position(frameStart);
+                frameStart = i + 1;
+                scanned = frameStart;
+                return frame;
+            }
+        }
+        scanned = end;
+        return null;
+    }
+
+    /**
+     * Reads from a blocking channel until a line is complete
+     * @return The next line without its terminator, null at the end of the stream. Like {@link java.io.BufferedReader},
+     *         an unterminated last line is returned as well
+     */
+    public ByteBuffer readFrame(ReadableByteChannel channel) throws IOException {
+        ByteBuffer next;
+        while ((next = nextFrame()) == null) {
+            if (fill(channel) < 0) {
+                return remainder();
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Same as {@link #readFrame(ReadableByteChannel)}, but decodes the line
+     */
+    public String readLine(ReadableByteChannel channel) throws IOException {
+        ByteBuffer line = readFrame(channel);
+        return line == null ? null : toString(line);
+    }
+
+    /**
+     * Decodes a frame as UTF-8, through a scratch array owned by this framer. The position of the frame is not changed
+     */
+    public String toString(ByteBuffer line) {
+        int length = line.remaining();
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = line.get(line.position() + i);
+        }
+        return new String(scratch, 0, length, UTF_8);
+    }
+
+    private ByteBuffer remainder() {
+        int end = buffer.position();
+        if (frameStart == end) {
+            return null;
+        }
+        frame.limit(end).position(frameStart);
+        frameStart = end;
+        scanned = end;
+        return frame;
+    }
+
+    // moves the bytes of the incomplete line to the start of the buffer, invalidating the last frame
+    private void compact() {
+        if (frameStart == 0) {
+            return;
+        }
+        buffer.flip().position(frameStart);
+        buffer.compact();
+        scanned -= frameStart;
+        frameStart = 0;
+    }
+}
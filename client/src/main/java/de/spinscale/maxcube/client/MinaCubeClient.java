@@ -0,0 +1,283 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.CommandEncoder;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Room;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.session.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * A non blocking client based on Apache MINA. All clients created by the same {@link MinaCubeConnector}
+ * share its threads, so no thread is blocked while waiting for a cube to reply
+ */
+public class MinaCubeClient implements AsyncCubeClient {
+
+    private static final byte[] REFRESH_FRAME = "l:\r\n".getBytes(US_ASCII);
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final MinaCubeConnector connector;
+    private final boolean ownsConnector;
+    private final String hostname;
+    private final int port;
+    private final Parser parser = new Parser();
+    private final CommandPipeline pipeline;
+    private final CommandScheduler commandScheduler;
+    private final CompletableFuture<Cube> connected = new CompletableFuture<>();
+    // commands are encoded into this buffer and written from it while holding the lock of the encoder
+    private final CommandEncoder encoder = new CommandEncoder();
+    private final ByteBuffer commandFrame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+    private Duration connectTimeout = Duration.ofSeconds(5);
+    private Duration commandTimeout = Duration.ofSeconds(5);
+    private volatile IoSession session;
+    // only accessed from the session's processor thread
+    private Cube cube;
+
+    public MinaCubeClient(String hostname) {
+        this(hostname, 62910);
+    }
+
+    /**
+     * Creates a client with its own connector, use {@link MinaCubeConnector#newClient(String, int)} to share threads
+     */
+    public MinaCubeClient(String hostname, int port) {
+        this(new MinaCubeConnector(1), true, hostname, port);
+    }
+
+    MinaCubeClient(MinaCubeConnector connector, String hostname, int port) {
+        this(connector, false, hostname, port);
+    }
+
+    private MinaCubeClient(MinaCubeConnector connector, boolean ownsConnector, String hostname, int port) {
+        this.connector = connector;
+        this.ownsConnector = ownsConnector;
+        this.hostname = hostname;
+        this.port = port;
+        this.pipeline = new CommandPipeline(this::writeFrame, connector.scheduler(), this::onCommandTimeout);
+        this.commandScheduler = new CommandScheduler(connector.scheduler(), CommandScheduler.DEFAULT_DUTY_CYCLE_BUDGET);
+        // a command waiting for the duty cycle to recover fails, instead of blocking its caller for minutes
+        this.commandScheduler.setMaxQueueWait(commandTimeout);
+    }
+
+    /**
+     * The time to wait for the cube to send all rooms and devices after connecting
+     */
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * The time to wait for the reply of a command sent by {@link #boost(Room)} or {@link #holiday(Room, LocalDateTime, int)},
+     * as well as the time it may wait for the duty cycle budget before being sent
+     */
+    public void setCommandTimeout(Duration commandTimeout) {
+        this.commandTimeout = commandTimeout;
+        commandScheduler.setMaxQueueWait(commandTimeout);
+    }
+
+    /**
+     * @return The scheduler pacing the set temperature commands, to configure the duty cycle budget or
+     *         to check the number of queued commands
+     */
+    public CommandScheduler getCommandScheduler() {
+        return commandScheduler;
+    }
+
+    @Override
+    public CompletableFuture<Cube> connect() {
+        InetSocketAddress endpoint = new InetSocketAddress(hostname, port);
+        logger.debug("Connecting to {}", endpoint);
+        ConnectFuture future = connector.connect(endpoint, this);
+        future.addListener(f -> {
+            if (!future.isConnected()) {
+                connected.completeExceptionally(future.getException());
+            }
+        });
+
+        String message = String.format(Locale.ROOT, "Cube [%s] did not send its configuration within [%s]", endpoint, connectTimeout);
+        ScheduledFuture<?> timeoutTask = connector.scheduler().schedule(() -> connected.completeExceptionally(new TimeoutException(message)),
+                connectTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        connected.whenComplete((cube, e) -> timeoutTask.cancel(false));
+        return connected;
+    }
+
+    @Override
+    public CompletableFuture<Cube> refresh() {
+        if (!connected.isDone() || connected.isCompletedExceptionally()) {
+            return failedFuture(new IllegalStateException("Client is not connected"));
+        }
+        // runs on the processor thread of the session, in order with all other received lines
+        CompletableFuture<String> reply;
+        synchronized (encoder) {
+            commandFrame.clear();
+            commandFrame.put(REFRESH_FRAME).flip();
+            reply = pipeline.send(commandFrame, "L:", commandTimeout);
+        }
+        return reply.thenApply(line -> {
+            try {
+                parser.parse(cube, line);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return cube;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> boost(Room room) {
+        RoomTarget target;
+        try {
+            target = RoomTarget.boost(room);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+        return sendSetTemperatureRequest(target);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> holiday(Room room, LocalDateTime endTime, int temperature) {
+        RoomTarget target;
+        try {
+            target = RoomTarget.holiday(room, endTime, temperature);
+        } catch (RuntimeException e) {
+            return failedFuture(e);
+        }
+        return sendSetTemperatureRequest(target);
+    }
+
+    private CompletableFuture<Boolean> sendSetTemperatureRequest(RoomTarget target) {
+        if (!connected.isDone() || connected.isCompletedExceptionally()) {
+            return failedFuture(new IllegalStateException("Client is not connected"));
+        }
+        try {
+            target.checkEncodable();
+        } catch (IllegalArgumentException e) {
+            return failedFuture(e);
+        }
+        // the command might be queued, if the duty cycle budget of the cube is exhausted
+        return commandScheduler.submit(target.getRoom().getId(), target, () -> sendSetTemperatureFrame(target)).thenApply(response -> {
+            logger.info("Got response: [{}]", response);
+            cube.setDutyCycle(response.getDutyCycle());
+            cube.setFreeMemorySlots(response.getFreeMemorySlots());
+            return response.isAccepted();
+        });
+    }
+
+    // encoded when the command is actually sent, as it might have been queued or replaced by a newer one before
+    private CompletableFuture<String> sendSetTemperatureFrame(RoomTarget target) {
+        synchronized (encoder) {
+            commandFrame.clear();
+            if (target.getMode() == Parser.Mode.BOOST) {
+                encoder.encodeBoost(target.getRoom(), commandFrame);
+            } else {
+                encoder.encodeHoliday(target.getRoom(), target.getEndTime(), target.getTemperature(), commandFrame);
+            }
+            commandFrame.flip();
+            return pipeline.send(commandFrame, "S:", commandTimeout);
+        }
+    }
+
+    // the session writes asynchronously, so the frame is copied into a buffer of its own. The codec passes
+    // buffers through as they are, the frame contains the line delimiter already
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        IoSession session = this.session;
+        if (session == null || !session.isConnected()) {
+            throw new IOException("Session to " + hostname + " is not connected");
+        }
+        session.write(IoBuffer.allocate(frame.remaining()).put(frame).flip());
+    }
+
+    // later replies cannot be matched to their commands anymore
+    private void onCommandTimeout(TimeoutException e) {
+        IoSession session = this.session;
+        if (session != null) {
+            logger.warn("Closing the session to [{}]: {}", hostname, e.getMessage());
+            session.closeNow();
+        }
+    }
+
+    void onSessionCreated(IoSession session) {
+        this.session = session;
+    }
+
+    void onLine(String line) throws IOException {
+        if (line.isEmpty()) {
+            return;
+        }
+
+        logger.trace("Reading input line: [{}]", line);
+        if (cube == null) {
+            cube = parser.parseHeader(line);
+            commandScheduler.update(cube.getDutyCycle(), cube.getFreeMemorySlots());
+        } else if (!connected.isDone()) {
+            parser.parse(cube, line);
+            if (line.startsWith("L:")) {
+                connected.complete(cube);
+            }
+        } else {
+            pipeline.onReply(line);
+        }
+    }
+
+    void onClosed() {
+        EOFException e = new EOFException("Session to " + hostname + " was closed");
+        connected.completeExceptionally(e);
+        pipeline.failAll(e);
+    }
+
+    void onException(Throwable cause) {
+        connected.completeExceptionally(cause);
+        pipeline.failAll(cause);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IoSession session = this.session;
+        if (session != null) {
+            session.write("q:");
+            session.closeOnFlush().awaitUninterruptibly(2000);
+        }
+        if (ownsConnector) {
+            connector.close();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import org.apache.mina.core.future.ConnectFuture;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.codec.textline.LineDelimiter;
+import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
+import org.apache.mina.transport.socket.nio.NioSocketConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Holds the NIO threads, that are shared between all the {@link MinaCubeClient}s created by it.
+ * A single connector is sufficient to talk to hundreds of cubes
+ */
+public class MinaCubeConnector implements Closeable {
+
+    private static final AttributeKey CLIENT = new AttributeKey(MinaCubeConnector.class, "client");
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final NioSocketConnector connector;
+    private final ScheduledExecutorService scheduler;
+
+    public MinaCubeConnector() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param processorCount The number of NIO threads to handle all sessions
+     */
+    public MinaCubeConnector(int processorCount) {
+        connector = new NioSocketConnector(processorCount);
+        connector.setConnectTimeoutMillis(2000);
+
+        TextLineCodecFactory codecFactory = new TextLineCodecFactory(UTF_8, LineDelimiter.CRLF, LineDelimiter.AUTO);
+        codecFactory.setDecoderMaxLineLength(4096);
+        codecFactory.setEncoderMaxLineLength(4096);
+        connector.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory));
+        connector.setHandler(new ClientHandler());
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cube-timeout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public MinaCubeClient newClient(String hostname) {
+        return newClient(hostname, 62910);
+    }
+
+    public MinaCubeClient newClient(String hostname, int port) {
+        return new MinaCubeClient(this, hostname, port);
+    }
+
+    ConnectFuture connect(InetSocketAddress address, MinaCubeClient client) {
+        // the client needs to be attached before the first line is received
+        return connector.connect(address, (session, future) -> {
+            session.setAttribute(CLIENT, client);
+            client.onSessionCreated(session);
+        });
+    }
+
+    ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
+    @Override
+    public void close() {
+        connector.dispose(true);
+        scheduler.shutdownNow();
+    }
+
+    private class ClientHandler extends IoHandlerAdapter {
+
+        @Override
+        public void sessionOpened(IoSession session) throws Exception {
+            logger.debug("Connected to {}", session.getRemoteAddress());
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            client(session).onLine((String) message);
+        }
+
+        @Override
+        public void sessionClosed(IoSession session) throws Exception {
+            client(session).onClosed();
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            logger.error("Exception in session from [{}<->{}]", session.getLocalAddress(), session.getRemoteAddress(), cause);
+            client(session).onException(cause);
+            session.closeNow();
+        }
+
+        private MinaCubeClient client(IoSession session) {
+            return (MinaCubeClient) session.getAttribute(CLIENT);
+        }
+    }
+}
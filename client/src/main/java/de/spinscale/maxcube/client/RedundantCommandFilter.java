@@ -0,0 +1,109 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.Generator;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.IntTable;
+import de.spinscale.maxcube.entities.Room;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recognizes commands, that would not change the state of a room as known from the last device list, so they do not
+ * need to be sent. Only holiday commands are checked: a boost restarts the boost duration of the thermostats, so
+ * it always changes something.
+ *
+ * The device list a command was suppressed for might already be outdated. Suppressed commands are remembered per
+ * room and checked against the next device list, the ones of rooms in another state have to be sent after all.
+ *
+ * Suppressing is best effort: it reads the rooms and devices on the thread of the caller, while the next device list
+ * might be parsed into them at the same time. Verifying is meant to run on the thread parsing the device lists, right
+ * after parsing, so a command suppressed on a torn read is sent with the next device list. All methods are thread safe
+ */
+public class RedundantCommandFilter {
+
+    // the last suppressed command of every room, by room id
+    private final IntTable<RoomTarget> unverified = new IntTable<>();
+
+    /**
+     * @return true if the room is in the state the command sets already. The command is verified with the next
+     *         device list then
+     */
+    public synchronized boolean suppress(RoomTarget target) {
+        if (!isInState(target)) {
+            return false;
+        }
+        unverified.put(target.getRoom().getId(), target);
+        return true;
+    }
+
+    /**
+     * Forgets the suppressed command of a room, once a newer command for the room has been sent
+     */
+    public synchronized void sent(Room room) {
+        unverified.remove(room.getId());
+    }
+
+    /**
+     * Checks the suppressed commands against the rooms, after they have been updated from a new device list
+     * @return The suppressed commands of the rooms, that are not in the state they set
+     */
+    public synchronized List<RoomTarget> verify() {
+        List<RoomTarget> failed = new ArrayList<>();
+        for (RoomTarget target : unverified) {
+            if (!isInState(target)) {
+                failed.add(target);
+            }
+        }
+        unverified.clear();
+        return failed;
+    }
+
+    /**
+     * @return The number of rooms waiting to be checked against the next device list
+     */
+    public synchronized int getUnverifiedCount() {
+        return unverified.size();
+    }
+
+    /**
+     * @return true if all thermostats of the room are in the mode, setpoint and end time the command sets
+     */
+    static boolean isInState(RoomTarget target) {
+        if (target.getMode() != Parser.Mode.VACATION) {
+            return false;
+        }
+        Room room = target.getRoom();
+        if (room.getThermostatCount() == 0) {
+            return false;
+        }
+        // the device list has no seconds
+        LocalDateTime endTime = Generator.roundEndDateToTheNextHalfHour(target.getEndTime()).truncatedTo(ChronoUnit.MINUTES);
+        for (Device device : room.getDevices()) {
+            if (device.getType().isThermostat()
+                    && (device.getMode() != Parser.Mode.VACATION || !endTime.equals(device.getEndTime())
+                        || Double.compare(device.getConfiguredTemperature(), target.getTemperature()) != 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
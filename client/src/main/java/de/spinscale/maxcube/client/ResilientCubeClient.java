@@ -0,0 +1,279 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Room;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Wraps the connection to a single cube and transparently reconnects, after the connection failed or the cube
+ * rebooted. Every reconnect uses a new client created by the factory.
+ *
+ * After a connection failure, the next attempt is delayed by a jittered exponential backoff. Calls within that
+ * time fail fast with a {@link ConnectException}. After a number of consecutive failures the circuit opens and
+ * all calls fail fast for a longer time, so an unreachable cube does not tie up threads. Only an
+ * {@link IOException} or {@link TimeoutException} counts as a connection failure, other errors, like a cube
+ * sending malformed data, are passed on without backing off.
+ */
+public class ResilientCubeClient implements CubeClient {
+
+    public enum Health {
+        /** No connection has been opened yet or the client was closed */
+        DISCONNECTED,
+        /** The last call to the cube succeeded */
+        CONNECTED,
+        /** The last call failed, the next call tries to reconnect once the backoff has passed */
+        DEGRADED,
+        /** Too many consecutive failures, calls fail fast until the circuit is tried again */
+        OPEN_CIRCUIT
+    }
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+
+    private final Supplier<CubeClient> clientFactory;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final LongSupplier nanoTime;
+    private final Random random;
+
+    private volatile Health health = Health.DISCONNECTED;
+    private volatile boolean closed;
+    // the client currently connecting, so closing does not need to wait for the lock
+    private volatile CubeClient connecting;
+    private CubeClient client;
+    private Cube cube;
+    private int consecutiveFailures;
+    private long nextAttemptAt;
+
+    /**
+     * Backs off from one second up to five minutes and opens the circuit for a minute after five consecutive failures
+     */
+    public ResilientCubeClient(Supplier<CubeClient> clientFactory) {
+        this(clientFactory, Duration.ofSeconds(1), Duration.ofMinutes(5), 5, Duration.ofMinutes(1));
+    }
+
+    /**
+     * @param clientFactory     Creates a new, not yet connected client for every connection attempt
+     * @param initialBackoff    The delay after the first failure, doubled with every further failure
+     * @param maxBackoff        The maximum delay between two connection attempts
+     * @param failureThreshold  The number of consecutive failures, after which the circuit opens
+     * @param openDuration      The time calls fail fast once the circuit is open
+     */
+    public ResilientCubeClient(Supplier<CubeClient> clientFactory, Duration initialBackoff, Duration maxBackoff,
+                               int failureThreshold, Duration openDuration) {
+        this(clientFactory, initialBackoff, maxBackoff, failureThreshold, openDuration, System::nanoTime, new Random());
+    }
+
+    ResilientCubeClient(Supplier<CubeClient> clientFactory, Duration initialBackoff, Duration maxBackoff,
+                        int failureThreshold, Duration openDuration, LongSupplier nanoTime, Random random) {
+        if (failureThreshold < 1) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Failure threshold [%s] must be at least 1", failureThreshold));
+        }
+        this.clientFactory = clientFactory;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.nanoTime = nanoTime;
+        this.random = random;
+    }
+
+    /**
+     * @return The health of the connection, never blocks
+     */
+    public Health getHealth() {
+        return health;
+    }
+
+    /**
+     * @return The number of failed calls since the last successful one
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Connects to the cube, if not yet connected
+     * @return The cube read on connecting, this is a new instance after every reconnect
+     */
+    @Override
+    public Cube connect() throws Exception {
+        return execute(c -> cube);
+    }
+
+    /**
+     * Reads the current state of all devices, reconnecting first if needed. A reconnect reads the whole
+     * configuration, so the returned cube might be a new instance
+     */
+    @Override
+    public Cube refresh() throws Exception {
+        return execute(CubeClient::refresh);
+    }
+
+    @Override
+    public boolean boost(Room room) throws Exception {
+        return execute(c -> c.boost(room));
+    }
+
+    @Override
+    public boolean holiday(Room room, LocalDateTime endTime, int temperature) throws Exception {
+        return execute(c -> c.holiday(room, endTime, temperature));
+    }
+
+    private <T> T execute(Operation<T> operation) throws Exception {
+        CubeClient current = connectIfNeeded();
+        try {
+            T result = operation.apply(current);
+            onSuccess();
+            return result;
+        } catch (IOException | TimeoutException e) {
+            onFailure(current, e);
+            throw e;
+        }
+    }
+
+    // connecting holds the lock, so concurrent callers wait for a single connection attempt
+    private synchronized CubeClient connectIfNeeded() throws Exception {
+        if (closed) {
+            throw new IllegalStateException("Client has been closed");
+        }
+        if (client != null) {
+            return client;
+        }
+
+        long waitNanos = nextAttemptAt - nanoTime.getAsLong();
+        if (consecutiveFailures > 0 && waitNanos > 0) {
+            throw new ConnectException(String.format(Locale.ROOT, "Not reconnecting for another [%sms] after [%s] failures",
+                    TimeUnit.NANOSECONDS.toMillis(waitNanos), consecutiveFailures));
+        }
+
+        CubeClient newClient = clientFactory.get();
+        connecting = newClient;
+        try {
+            cube = newClient.connect();
+        } catch (IOException | TimeoutException e) {
+            closeQuietly(newClient);
+            if (!closed) {
+                recordFailure(e);
+            }
+            throw e;
+        } catch (Exception e) {
+            // like a broken header line, retrying sooner or later does not help
+            closeQuietly(newClient);
+            throw e;
+        } finally {
+            connecting = null;
+        }
+        if (closed) {
+            closeQuietly(newClient);
+            throw new IllegalStateException("Client has been closed");
+        }
+        client = newClient;
+        return newClient;
+    }
+
+    private synchronized void onSuccess() {
+        if (consecutiveFailures > 0) {
+            logger.info("Connection recovered after [{}] failures", consecutiveFailures);
+        }
+        consecutiveFailures = 0;
+        health = Health.CONNECTED;
+    }
+
+    private synchronized void onFailure(CubeClient failed, Exception e) {
+        // another caller might already have replaced the failed client
+        if (failed != client) {
+            return;
+        }
+        closeQuietly(client);
+        client = null;
+        recordFailure(e);
+    }
+
+    private void recordFailure(Exception e) {
+        consecutiveFailures++;
+        long delayNanos;
+        if (consecutiveFailures >= failureThreshold) {
+            delayNanos = openDuration.toNanos();
+            health = Health.OPEN_CIRCUIT;
+        } else {
+            delayNanos = backoffNanos(consecutiveFailures);
+            health = Health.DEGRADED;
+        }
+        nextAttemptAt = nanoTime.getAsLong() + delayNanos;
+        logger.info("Connection failed [{}] times, next attempt in [{}ms], health [{}]: {}", consecutiveFailures,
+                TimeUnit.NANOSECONDS.toMillis(delayNanos), health, e.getMessage());
+    }
+
+    // equal jitter, so a fleet of clients failing at the same time does not reconnect at the same time
+    long backoffNanos(int failures) {
+        long max = maxBackoff.toNanos();
+        long delay = initialBackoff.toNanos();
+        for (int i = 1; i < failures && delay < max; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, max);
+        return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+    }
+
+    private void closeQuietly(CubeClient client) {
+        try {
+            client.close();
+        } catch (IOException e) {
+            logger.trace("Closing client failed", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        // aborts a connection attempt, which is holding the lock
+        CubeClient pending = connecting;
+        if (pending != null) {
+            closeQuietly(pending);
+        }
+
+        CubeClient current;
+        synchronized (this) {
+            current = client;
+            client = null;
+            health = Health.DISCONNECTED;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface Operation<T> {
+        T apply(CubeClient client) throws Exception;
+    }
+}
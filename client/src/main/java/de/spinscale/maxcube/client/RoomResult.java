@@ -0,0 +1,81 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import java.util.Locale;
+
+/**
+ * The outcome of a single {@link RoomTarget} of a bulk operation
+ */
+public final class RoomResult {
+
+    public enum Status {
+        /** The cube accepted the command */
+        ACCEPTED,
+        /** The cube rejected the command, usually because its duty cycle was exhausted */
+        REJECTED,
+        /** The command could not be sent or no reply arrived, see {@link #getFailure()} */
+        FAILED
+    }
+
+    private final RoomTarget target;
+    private final Status status;
+    private final Exception failure;
+
+    private RoomResult(RoomTarget target, Status status, Exception failure) {
+        this.target = target;
+        this.status = status;
+        this.failure = failure;
+    }
+
+    /**
+     * @param accepted  The reply of the cube to the command
+     */
+    public static RoomResult of(RoomTarget target, boolean accepted) {
+        return new RoomResult(target, accepted ? Status.ACCEPTED : Status.REJECTED, null);
+    }
+
+    public static RoomResult failed(RoomTarget target, Exception failure) {
+        return new RoomResult(target, Status.FAILED, failure);
+    }
+
+    public RoomTarget getTarget() {
+        return target;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isAccepted() {
+        return status == Status.ACCEPTED;
+    }
+
+    /**
+     * @return The reason the command failed, null unless the status is {@link Status#FAILED}
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        if (failure != null) {
+            return String.format(Locale.ROOT, "%s %s: %s", target, status, failure.getMessage());
+        }
+        return String.format(Locale.ROOT, "%s %s", target, status);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.CommandEncoder;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Room;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The command for a single room, that is part of a bulk operation, see {@link CubeClient#apply(java.util.List)}
+ */
+public final class RoomTarget {
+
+    private final Room room;
+    private final Parser.Mode mode;
+    private final LocalDateTime endTime;
+    private final int temperature;
+
+    private RoomTarget(Room room, Parser.Mode mode, LocalDateTime endTime, int temperature) {
+        if (room == null) {
+            throw new IllegalArgumentException("Room may not be null");
+        }
+        this.room = room;
+        this.mode = mode;
+        this.endTime = endTime;
+        this.temperature = temperature;
+    }
+
+    public static RoomTarget boost(Room room) {
+        return new RoomTarget(room, Parser.Mode.BOOST, null, 0);
+    }
+
+    /**
+     * @param endTime       The time to end the heating
+     * @param temperature   The target temperature in degrees celsius
+     */
+    public static RoomTarget holiday(Room room, LocalDateTime endTime, int temperature) {
+        if (endTime == null) {
+            throw new IllegalArgumentException("End time may not be null");
+        }
+        return new RoomTarget(room, Parser.Mode.VACATION, endTime, temperature);
+    }
+
+    /**
+     * Commands are encoded once they are sent, this fails before they are queued instead
+     * @throws IllegalArgumentException If the room has no thermostat or the temperature is out of range
+     */
+    void checkEncodable() {
+        CommandEncoder.targetAddress(room);
+        if (mode == Parser.Mode.VACATION) {
+            CommandEncoder.checkTemperature(temperature);
+        }
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * @return Either {@link Parser.Mode#BOOST} or {@link Parser.Mode#VACATION}
+     */
+    public Parser.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return The end of the holiday, null when boosting
+     */
+    public LocalDateTime getEndTime() {
+        return endTime;
+    }
+
+    public int getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Sends this command with the single room methods of the client and waits for the reply
+     */
+    boolean sendTo(CubeClient client) throws Exception {
+        if (mode == Parser.Mode.BOOST) {
+            return client.boost(room);
+        }
+        return client.holiday(room, endTime, temperature);
+    }
+
+    /**
+     * Targets are equal if they send the same command to the same room
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        RoomTarget that = (RoomTarget) o;
+        return room.getId() == that.room.getId() && mode == that.mode && temperature == that.temperature
+                && Objects.equals(endTime, that.endTime);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(room.getId(), mode, endTime, temperature);
+    }
+
+    @Override
+    public String toString() {
+        if (mode == Parser.Mode.BOOST) {
+            return String.format(Locale.ROOT, "boost room [%s]", room.getName());
+        }
+        return String.format(Locale.ROOT, "holiday room [%s] at [%s] °C till [%s]", room.getName(), temperature, endTime);
+    }
+}
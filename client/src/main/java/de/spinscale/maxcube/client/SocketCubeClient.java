@@ -15,101 +15,585 @@
  */
 package de.spinscale.maxcube.client;
 
-import de.spinscale.maxcube.data.Generator;
+import de.spinscale.maxcube.data.CommandEncoder;
 import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Configuration;
 import de.spinscale.maxcube.entities.Cube;
 import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.metrics.CubeMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 public class SocketCubeClient implements CubeClient {
 
+    private static final String DEVICE_LIST_PREFIX = "L:";
+    private static final byte[] REFRESH_FRAME = "l:\r\n".getBytes(US_ASCII);
+
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     private final String hostname;
     private final int port;
     private final Socket socket;
     private final Parser parser;
+    private final ScheduledExecutorService scheduler;
+    private final boolean ownsScheduler;
+    private final CommandPipeline pipeline;
+    private final CommandScheduler commandScheduler;
+    // commands are encoded into this buffer and written from it while holding the lock of the encoder
+    private final CommandEncoder encoder = new CommandEncoder();
+    private final ByteBuffer commandFrame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+    private Duration commandTimeout = Duration.ofSeconds(5);
+    private Executor configurationExecutor;
+    private CubeMetrics metrics = CubeMetrics.NOOP;
+    private volatile RedundantCommandFilter redundantCommandFilter;
+    // identifies the cube in the metrics
+    private final String metricsName;
     private Cube cube;
-    private BufferedReader reader;
+    private final LineFramer framer = new LineFramer();
+    private ReadableByteChannel channel;
+    private Thread readerThread;
+    private volatile long lastLineReceived;
+    private volatile Duration idleTimeout;
+    private volatile ScheduledFuture<?> idleCheck;
 
     public SocketCubeClient(String hostname) {
         this(hostname, 62910);
     }
 
     public SocketCubeClient(String hostname, int port) {
+        this(hostname, port, null);
+    }
+
+    /**
+     * @param scheduler Used to time out commands, can be shared between many clients. If null, the client
+     *                  creates its own and shuts it down on close
+     */
+    public SocketCubeClient(String hostname, int port, ScheduledExecutorService scheduler) {
         this.hostname = hostname;
         this.port = port;
+        this.metricsName = hostname + ":" + port;
         this.socket = new Socket();
         this.parser = new Parser();
+        this.ownsScheduler = scheduler == null;
+        this.scheduler = ownsScheduler ? Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cube-timeout-" + hostname);
+            thread.setDaemon(true);
+            return thread;
+        }) : scheduler;
+        this.pipeline = new CommandPipeline(this::writeFrame, this.scheduler, this::onCommandTimeout);
+        this.commandScheduler = new CommandScheduler(this.scheduler, CommandScheduler.DEFAULT_DUTY_CYCLE_BUDGET);
+        // a command waiting for the duty cycle to recover fails, instead of blocking its caller for minutes
+        this.commandScheduler.setMaxQueueWait(commandTimeout);
+    }
+
+    /**
+     * The time to wait for the reply of a command sent by {@link #boost(Room)} or {@link #holiday(Room, LocalDateTime, int)},
+     * as well as the time it may wait for the duty cycle budget before being sent
+     */
+    public void setCommandTimeout(Duration commandTimeout) {
+        this.commandTimeout = commandTimeout;
+        commandScheduler.setMaxQueueWait(commandTimeout);
+    }
+
+    /**
+     * The executor decoding the configuration lines while connecting, so the reader thread can continue with the next
+     * line. Defaults to null, which decodes on the reader thread. Only worth it for a single connect, that should be
+     * as fast as possible: clients connecting at the same time, like a fleet sweep, are parallel already and would
+     * only queue up behind a shared pool
+     */
+    public void setConfigurationExecutor(Executor configurationExecutor) {
+        this.configurationExecutor = configurationExecutor;
+    }
+
+    /**
+     * Holiday commands, that would not change the state of the room as known from the last device list, are not sent
+     * but reported as accepted. Such rooms are checked with the next device list, requested by a refresh or sent by
+     * the cube on its own while listening, and the command is sent after all, if the room turns out to be in another
+     * state. Disabled by default
+     */
+    public void setSuppressRedundantCommands(boolean suppressRedundantCommands) {
+        this.redundantCommandFilter = suppressRedundantCommands ? new RedundantCommandFilter() : null;
+    }
+
+    /**
+     * Reports message counts and latencies of this client, can be shared between many clients
+     */
+    public void setMetrics(CubeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return The scheduler pacing the set temperature commands, to configure the duty cycle budget or
+     *         to check the number of queued commands
+     */
+    public CommandScheduler getCommandScheduler() {
+        return commandScheduler;
     }
 
     public Cube connect() throws IOException {
+        long start = System.nanoTime();
         InetSocketAddress endpoint = new InetSocketAddress(hostname, port);
         logger.debug("Connecting to {}", endpoint);
         socket.connect(endpoint, 2000);
+        metrics.connected(metricsName, System.nanoTime() - start);
         // needs to be configurable in the future, when waiting for pairing
         // but two seconds are enough to return the standard info
         socket.setSoTimeout(3000);
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        // a channel of the stream instead of the socket channel, as only the stream honors the read timeout
+        this.channel = Channels.newChannel(socket.getInputStream());
 
         logger.trace("Waiting for header line");
-        String supposedHeaderLine = reader.readLine();
+        ByteBuffer headerFrame = framer.readFrame(channel);
+        if (headerFrame == null) {
+            throw new EOFException("Stream reached end before the header line");
+        }
+        metrics.messageReceived(metricsName, 'H', headerFrame.remaining());
+        String supposedHeaderLine = framer.toString(headerFrame);
         logger.trace("Reading header line [{}]", supposedHeaderLine);
+        long parseStart = System.nanoTime();
         cube = parser.parseHeader(supposedHeaderLine);
+        metrics.messageParsed(metricsName, 'H', System.nanoTime() - parseStart);
+        commandScheduler.update(cube.getDutyCycle(), cube.getFreeMemorySlots());
 
-        String input;
-        while ((input = reader.readLine()) != null) {
-            logger.trace("Reading input line: [{}]", input);
-            parser.parse(cube, input);
-            if (input.startsWith("L:")) break;
+        // configurations are decoded in parallel, but attached in the order they were sent once all rooms are known
+        List<CompletableFuture<Configuration>> configurations = new ArrayList<>();
+        // all other lines are parsed straight from the buffer of the framer
+        ByteBuffer input;
+        while ((input = framer.readFrame(channel)) != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Reading input line: [{}]", framer.toString(input));
+            }
+            if (input.remaining() < 2) {
+                continue;
+            }
+            char type = (char) input.get(input.position());
+            metrics.messageReceived(metricsName, type, input.remaining());
+            if (configurationExecutor != null && type == 'C') {
+                String line = framer.toString(input);
+                configurations.add(CompletableFuture.supplyAsync(() -> decodeConfiguration(line), configurationExecutor));
+                continue;
+            }
+            if (type == 'L') {
+                attachConfigurations(configurations);
+                parse(type, input);
+                break;
+            }
+            parse(type, input);
         }
+        attachConfigurations(configurations);
+        metrics.snapshotReceived(metricsName, System.nanoTime() - start);
+
+        // from now on replies are read in the background, so commands can be sent back-to-back
+        socket.setSoTimeout(0);
+        lastLineReceived = System.nanoTime();
+        readerThread = new Thread(this::readReplies, "cube-reader-" + hostname);
+        readerThread.setDaemon(true);
+        readerThread.start();
 
         return cube;
     }
 
+    private void parse(char type, ByteBuffer line) throws IOException {
+        long start = System.nanoTime();
+        parser.parse(cube, line);
+        metrics.messageParsed(metricsName, type, System.nanoTime() - start);
+    }
+
+    // runs on the reader thread for the lines the cube sends on its own, except for device lists
+    private void parse(String line) throws IOException {
+        long start = System.nanoTime();
+        parser.parse(cube, line);
+        metrics.messageParsed(metricsName, line.charAt(0), System.nanoTime() - start);
+    }
+
+    private Configuration decodeConfiguration(String line) {
+        long start = System.nanoTime();
+        Configuration configuration = Parser.decodeConfiguration(line);
+        metrics.messageParsed(metricsName, 'C', System.nanoTime() - start);
+        return configuration;
+    }
+
+    private CompletableFuture<String> sendRefreshFrame(Duration timeout) {
+        synchronized (encoder) {
+            commandFrame.clear();
+            commandFrame.put(REFRESH_FRAME).flip();
+            return send(commandFrame, DEVICE_LIST_PREFIX, timeout);
+        }
+    }
+
+    // encoded when the command is actually sent, as it might have been queued or replaced by a newer one before
+    private CompletableFuture<String> sendSetTemperatureFrame(RoomTarget target, Duration timeout) {
+        synchronized (encoder) {
+            commandFrame.clear();
+            if (target.getMode() == Parser.Mode.BOOST) {
+                encoder.encodeBoost(target.getRoom(), commandFrame);
+            } else {
+                encoder.encodeHoliday(target.getRoom(), target.getEndTime(), target.getTemperature(), commandFrame);
+            }
+            commandFrame.flip();
+            return send(commandFrame, "S:", timeout);
+        }
+    }
+
+    // only successful round trips are recorded, timeouts would distort the latencies
+    private CompletableFuture<String> send(ByteBuffer frame, String replyPrefix, Duration timeout) {
+        long start = System.nanoTime();
+        return pipeline.send(frame, replyPrefix, timeout).whenComplete((line, e) -> {
+            if (e == null) {
+                metrics.commandCompleted(metricsName, System.nanoTime() - start);
+            }
+        });
+    }
+
+    private void attachConfigurations(List<CompletableFuture<Configuration>> configurations) {
+        for (CompletableFuture<Configuration> configuration : configurations) {
+            try {
+                parser.attachConfiguration(cube, configuration.join());
+            } catch (CompletionException e) {
+                // same exception as when decoding on the reader thread
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        configurations.clear();
+    }
+
+    /**
+     * Requests the current device list over the open connection and updates the rooms and devices of the cube
+     * returned by {@link #connect()}. Rooms and configurations are not read again, so devices paired after
+     * connecting require a new connection
+     */
+    @Override
+    public Cube refresh() throws Exception {
+        return await(sendRefresh(commandTimeout));
+    }
+
+    /**
+     * Requests the current device list without waiting for the reply of previously sent commands
+     * @param timeout   The time to wait for the reply of the cube
+     * @return          A future completed with the updated cube
+     */
+    public CompletableFuture<Cube> sendRefresh(Duration timeout) {
+        if (readerThread == null) {
+            throw new IllegalStateException("Client is not connected");
+        }
+        // the reader thread parses the device list before completing the reply
+        return sendRefreshFrame(timeout).thenApply(reply -> cube);
+    }
+
+    /**
+     * Keeps the cube returned by {@link #connect()} up to date with the lines the cube sends on its own, like the
+     * device list after a window was opened. Listeners registered on the cube are notified of the changes.
+     * If no line arrived within the idle timeout, the device list is requested explicitly
+     * @param idleTimeout The time without any line from the cube before refreshing
+     */
+    public void listen(Duration idleTimeout) {
+        if (readerThread == null) {
+            throw new IllegalStateException("Client is not connected");
+        }
+        if (idleTimeout.isZero() || idleTimeout.isNegative()) {
+            throw new IllegalArgumentException("Idle timeout must be positive, was [" + idleTimeout + "]");
+        }
+        stopListening();
+        this.idleTimeout = idleTimeout;
+        idleCheck = scheduler.schedule(this::checkIdle, idleTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops applying unsolicited lines and refreshing when idle
+     */
+    public void stopListening() {
+        idleTimeout = null;
+        ScheduledFuture<?> check = idleCheck;
+        if (check != null) {
+            check.cancel(false);
+        }
+    }
+
+    public boolean isListening() {
+        return idleTimeout != null;
+    }
+
+    private void checkIdle() {
+        Duration timeout = idleTimeout;
+        if (timeout == null || socket.isClosed()) {
+            return;
+        }
+
+        long remaining = timeout.toNanos() - (System.nanoTime() - lastLineReceived);
+        if (remaining <= 0) {
+            logger.debug("No line received within [{}], refreshing", timeout);
+            sendRefresh(commandTimeout).whenComplete((cube, e) -> {
+                if (e != null) {
+                    logger.debug("Refreshing idle connection failed: {}", e.getMessage());
+                }
+            });
+            remaining = timeout.toNanos();
+        }
+        idleCheck = scheduler.schedule(this::checkIdle, remaining, TimeUnit.NANOSECONDS);
+    }
+
     @Override
     public boolean boost(Room room) throws Exception {
-        String data = Generator.writeBoostRequest(room);
-        return this.sendSetTemperatureRequest(data);
+        return await(sendBoost(room, commandTimeout));
     }
 
     @Override
     public boolean holiday(Room room, LocalDateTime endTime, int temperature) throws Exception {
-        String data = Generator.writeHolidayRequest(room, endTime, temperature);
-        return this.sendSetTemperatureRequest(data);
+        return await(sendHoliday(room, endTime, temperature, commandTimeout));
     }
 
-    private boolean sendSetTemperatureRequest(String base64encodedData) throws Exception {
-        String dataToSend = base64encodedData + "\r\n";
-        socket.getOutputStream().write(dataToSend.getBytes(UTF_8));
+    /**
+     * Sends the commands for all rooms back-to-back, without waiting for a reply before sending the next one.
+     * Like single commands they are queued, while the duty cycle budget of the cube is exhausted
+     */
+    @Override
+    public List<RoomResult> apply(List<RoomTarget> targets) throws Exception {
+        List<CompletableFuture<Boolean>> replies = new ArrayList<>(targets.size());
+        for (RoomTarget target : targets) {
+            CompletableFuture<Boolean> reply;
+            try {
+                reply = target.getMode() == Parser.Mode.BOOST ? sendBoost(target.getRoom(), commandTimeout)
+                        : sendHoliday(target.getRoom(), target.getEndTime(), target.getTemperature(), commandTimeout);
+            } catch (IOException | IllegalArgumentException e) {
+                reply = new CompletableFuture<>();
+                reply.completeExceptionally(e);
+            }
+            replies.add(reply);
+        }
+
+        List<RoomResult> results = new ArrayList<>(targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            try {
+                results.add(RoomResult.of(targets.get(i), await(replies.get(i))));
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                results.add(RoomResult.failed(targets.get(i), e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sends a boost request without waiting for the reply of previously sent commands
+     * @param room      The room to boost
+     * @param timeout   The time to wait for the reply of the cube, once the command has been sent
+     * @return          A future that is true if the cube accepted the command, it fails with an
+     *                  IllegalArgumentException if the room has no thermostat, or with a TimeoutException if the
+     *                  duty cycle budget did not allow sending the command within the command timeout
+     */
+    public CompletableFuture<Boolean> sendBoost(Room room, Duration timeout) throws IOException {
+        return sendSetTemperatureRequest(RoomTarget.boost(room), timeout);
+    }
+
+    /**
+     * Sends a holiday request without waiting for the reply of previously sent commands
+     * @param room          The room to set the temperature
+     * @param endTime       The time to end the heating
+     * @param temperature   The target temperature in degrees celsius
+     * @param timeout       The time to wait for the reply of the cube, once the command has been sent
+     * @return              A future that is true if the cube accepted the command, it fails with an
+     *                      IllegalArgumentException if the room has no thermostat or the temperature is out of range,
+     *                      or with a TimeoutException if the duty cycle budget did not allow sending the command
+     *                      within the command timeout
+     */
+    public CompletableFuture<Boolean> sendHoliday(Room room, LocalDateTime endTime, int temperature, Duration timeout) throws IOException {
+        RoomTarget target = RoomTarget.holiday(room, endTime, temperature);
+        RedundantCommandFilter filter = redundantCommandFilter;
+        if (filter != null && readerThread != null && filter.suppress(target)) {
+            logger.debug("Room [{}] is in holiday mode at [{}] °C already, not sending the command", room.getName(), temperature);
+            return CompletableFuture.completedFuture(true);
+        }
+        return sendSetTemperatureRequest(target, timeout);
+    }
+
+    // sends the suppressed commands of rooms, that did not end up in the expected state
+    private void verifySuppressedCommands() {
+        RedundantCommandFilter filter = redundantCommandFilter;
+        if (filter == null) {
+            return;
+        }
+        for (RoomTarget target : filter.verify()) {
+            Room room = target.getRoom();
+            logger.info("Room [{}] is not in the state of a suppressed command, sending it", room.getName());
+            try {
+                sendSetTemperatureRequest(target, commandTimeout).whenComplete((accepted, e) -> {
+                    if (e != null) {
+                        logger.warn("Sending the suppressed command for room [{}] failed: {}", room.getName(), e.getMessage());
+                    }
+                });
+            } catch (RuntimeException e) {
+                logger.warn("Sending the suppressed command for room [{}] failed", room.getName(), e);
+            }
+        }
+    }
+
+    private CompletableFuture<Boolean> sendSetTemperatureRequest(RoomTarget target, Duration timeout) {
+        if (readerThread == null) {
+            throw new IllegalStateException("Client is not connected");
+        }
+        target.checkEncodable();
+        RedundantCommandFilter filter = redundantCommandFilter;
+        if (filter != null) {
+            filter.sent(target.getRoom());
+        }
+        // the command might be queued, if the duty cycle budget of the cube is exhausted
+        return commandScheduler.submit(target.getRoom().getId(), target, () -> sendSetTemperatureFrame(target, timeout)).thenApply(response -> {
+            logger.info("Got response: [{}]", response);
+            cube.setDutyCycle(response.getDutyCycle());
+            cube.setFreeMemorySlots(response.getFreeMemorySlots());
+            return response.isAccepted();
+        });
+    }
+
+    // frames are encoded into a heap buffer, so its array is written as it is
+    private void writeFrame(ByteBuffer frame) throws IOException {
+        socket.getOutputStream().write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
         socket.getOutputStream().flush();
-        logger.info("Sent data [{}] to cube, now waiting for response", base64encodedData);
-        Thread.sleep(1000);
-        String line = reader.readLine();
-        if (line == null) {
+        frame.position(frame.limit());
+    }
+
+    // later replies cannot be matched to their commands anymore, closing the socket ends the reader thread
+    private void onCommandTimeout(TimeoutException e) {
+        logger.warn("Closing the connection to [{}]: {}", metricsName, e.getMessage());
+        try {
+            socket.close();
+        } catch (IOException ioException) {
+            logger.debug("Could not close the connection to [{}]", metricsName, ioException);
+        }
+    }
+
+    private void readReplies() {
+        try {
+            ByteBuffer frame;
+            while ((frame = framer.readFrame(channel)) != null) {
+                if (logger.isTraceEnabled()) {
+                    logger.trace("Reading input line: [{}]", framer.toString(frame));
+                }
+                lastLineReceived = System.nanoTime();
+                if (frame.remaining() < 2) {
+                    continue;
+                }
+                char type = (char) frame.get(frame.position());
+                metrics.messageReceived(metricsName, type, frame.remaining());
+                if (type == 'L') {
+                    applyDeviceList(frame);
+                    continue;
+                }
+                // all other lines are short, the string is needed to match the reply
+                String line = framer.toString(frame);
+                if (!pipeline.onReply(line) && isListening()) {
+                    applyUnsolicited(line);
+                }
+            }
             logger.info("Stream reached end");
-            return false;
+            pipeline.failAll(new EOFException("Stream reached end"));
+        } catch (IOException e) {
+            pipeline.failAll(e);
+        } finally {
+            stopListening();
+        }
+    }
+
+    // parsed straight from the buffer of the framer, before completing the refresh waiting for it
+    private void applyDeviceList(ByteBuffer frame) {
+        CompletableFuture<String> refresh = pipeline.take(DEVICE_LIST_PREFIX);
+        if (refresh == null && !isListening()) {
+            return;
+        }
+        try {
+            parse('L', frame);
+            verifySuppressedCommands();
+        } catch (IOException | RuntimeException e) {
+            if (refresh == null) {
+                // a single broken line should not stop the reader
+                logger.warn("Could not apply device list", e);
+            } else {
+                refresh.completeExceptionally(e);
+            }
+            return;
+        }
+        if (refresh != null) {
+            refresh.complete(DEVICE_LIST_PREFIX);
+        }
+    }
+
+    private void applyUnsolicited(String line) {
+        try {
+            parse(line);
+        } catch (IOException | RuntimeException e) {
+            // a single broken line should not stop the reader
+            logger.warn("Could not apply line [{}]", line, e);
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
         }
-        logger.info("Got response: [{}]", line);
-        return parser.parseResponseS(line);
     }
 
     @Override
     public void close() throws IOException {
-        socket.getOutputStream().write("q:/r/n".getBytes(UTF_8));
-        socket.getOutputStream().flush();
+        stopListening();
+        try {
+            if (socket.isConnected() && !socket.isClosed()) {
+                socket.getOutputStream().write("q:/r/n".getBytes(UTF_8));
+                socket.getOutputStream().flush();
+            }
+        } catch (IOException e) {
+            // the cube might have closed the connection already, there is nothing to quit then
+            logger.debug("Could not send quit command", e);
+        } finally {
+            // closing the socket unblocks the reader thread
+            // this also aborts a connect() that is still in progress in another thread
+            socket.close();
+            if (channel != null) {
+                channel.close();
+            }
+            if (ownsScheduler) {
+                scheduler.shutdownNow();
+            }
+        }
 
-        reader.close();
-        socket.close();
+        if (readerThread != null) {
+            try {
+                readerThread.join(TimeUnit.SECONDS.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Reads unsigned bytes from a region of an array, like a {@link java.io.ByteArrayInputStream} without locking
+ * and without the need to create a new instance per message. Reading past the end returns -1
+ */
+public final class ByteCursor {
+
+    private byte[] data;
+    private int position;
+    private int limit;
+
+    public ByteCursor() {
+        this(new byte[0]);
+    }
+
+    public ByteCursor(byte[] data) {
+        reset(data, 0, data.length);
+    }
+
+    /**
+     * Points the cursor to a new region, so the same instance can be used for every message
+     */
+    public ByteCursor reset(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+        return this;
+    }
+
+    /**
+     * @return The next byte as unsigned value, -1 if there are no more bytes
+     */
+    public int read() {
+        return position < limit ? data[position++] & 0xff : -1;
+    }
+
+    /**
+     * Copies up to length bytes into the destination
+     * @return The number of copied bytes, -1 if there are no more bytes
+     */
+    public int read(byte[] destination, int offset, int length) {
+        if (position >= limit) {
+            return -1;
+        }
+        int count = Math.min(length, limit - position);
+        System.arraycopy(data, position, destination, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Reads a string without copying the bytes into an intermediate array first
+     */
+    public String readString(int length) {
+        int count = Math.min(length, limit - position);
+        String value = new String(data, position, count, UTF_8);
+        position += count;
+        return value;
+    }
+
+    /**
+     * Reads the three bytes of an rf address
+     */
+    public int readRfAddress() {
+        int rfAddress = read() << 16;
+        rfAddress += read() << 8;
+        rfAddress += read();
+        return rfAddress;
+    }
+
+    /**
+     * @return The number of skipped bytes, which is less than count at the end
+     */
+    public int skip(int count) {
+        int skipped = Math.max(0, Math.min(count, limit - position));
+        position += skipped;
+        return skipped;
+    }
+
+    /**
+     * @return The unsigned byte at the offset from the current position, without moving the cursor, -1 if there is none
+     */
+    public int peek(int offset) {
+        int index = position + offset;
+        return offset >= 0 && index < limit ? data[index] & 0xff : -1;
+    }
+
+    /**
+     * @return true if the remaining bytes are exactly the given bytes, the cursor is not moved
+     */
+    public boolean contentEquals(byte[] bytes) {
+        if (bytes.length != limit - position) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (data[position + i] != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int available() {
+        return limit - position;
+    }
+}
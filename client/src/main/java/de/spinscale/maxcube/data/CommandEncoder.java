@@ -0,0 +1,161 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import de.spinscale.maxcube.entities.IntTable;
+import de.spinscale.maxcube.entities.Room;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Encodes set temperature commands as complete wire frames, {@code s:}, the Base64 encoded request and CRLF,
+ * straight into a buffer of the caller.
+ *
+ * A room with a single thermostat is addressed directly. A room with several thermostats is addressed as a group,
+ * the target rf address is zero and the cube sends a single frame for all thermostats of the room, instead of one
+ * per thermostat, which keeps the duty cycle down.
+ *
+ * The request header, everything up to the room id, only depends on the target and is cached per rf address.
+ * Apart from filling that cache, encoding does not create any objects. An instance must not be shared between
+ * threads
+ */
+public final class CommandEncoder {
+
+    /**
+     * The length of the longest frame, a holiday request of 14 bytes, including prefix and line terminator
+     */
+    public static final int MAX_FRAME_SIZE = frameSize(14);
+
+    private static final Logger logger = LoggerFactory.getLogger(CommandEncoder.class);
+    private static final DateTimeFormatter END_DATE_FORMAT = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm");
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(US_ASCII);
+
+    /**
+     * The target rf address of commands for all thermostats of a room
+     */
+    public static final int GROUP_ADDRESS = 0;
+
+    private static final int HEADER_LENGTH = 10;
+
+    private final IntTable<byte[]> headers = new IntTable<>();
+    private final byte[] request = new byte[14];
+
+    /**
+     * Writes a boost request for the thermostats of the room at the position of the buffer
+     * @return The number of bytes written
+     * @throws BufferOverflowException If the buffer has less than {@link #MAX_FRAME_SIZE} bytes remaining
+     */
+    public int encodeBoost(Room room, ByteBuffer frame) {
+        writeHeader(room);
+        // mode & temperature, boost mode is 11 at the beginning, temperature does not matter
+        request[HEADER_LENGTH] = (byte) 192;
+        return writeFrame(HEADER_LENGTH + 1, frame);
+    }
+
+    /**
+     * Writes a holiday request for the thermostats of the room at the position of the buffer
+     * @param endTime       The end of the holiday, rounded to the next half hour
+     * @param temperature   The temperature in degrees celsius
+     * @return The number of bytes written
+     * @throws BufferOverflowException If the buffer has less than {@link #MAX_FRAME_SIZE} bytes remaining
+     */
+    public int encodeHoliday(Room room, LocalDateTime endTime, int temperature, ByteBuffer frame) {
+        checkTemperature(temperature);
+
+        LocalDateTime endDate = Generator.roundEndDateToTheNextHalfHour(endTime);
+        if (logger.isInfoEnabled()) {
+            logger.info("Setting room [{}] to [{}] °C till [{}]", room.getName(), temperature, endDate.format(END_DATE_FORMAT));
+        }
+
+        writeHeader(room);
+        // boost is 192/11, vacation is 128/10, plus the temperature times 2
+        request[HEADER_LENGTH] = (byte) (128 + temperature * 2);
+        Generator.writeDateTimeUntil(endDate, request, HEADER_LENGTH + 1);
+        return writeFrame(HEADER_LENGTH + 4, frame);
+    }
+
+    /**
+     * @throws IllegalArgumentException If the temperature cannot be encoded in a holiday request
+     */
+    public static void checkTemperature(int temperature) {
+        if (temperature > 31) {
+            throw new IllegalArgumentException("Temperature must be between 0 and 31 °C");
+        }
+    }
+
+    /**
+     * @return The rf address a command for the room is sent to, either its only thermostat or {@link #GROUP_ADDRESS}
+     * @throws IllegalArgumentException If the room has no thermostat
+     */
+    public static int targetAddress(Room room) {
+        return room.getThermostatCount() > 1 ? GROUP_ADDRESS : room.findThermostat().getRfaddress();
+    }
+
+    private void writeHeader(Room room) {
+        int target = targetAddress(room);
+        byte[] header = headers.get(target);
+        if (header == null) {
+            header = new byte[HEADER_LENGTH];
+            header[0] = 0; // unknown
+            header[1] = 4; // rf flags
+            header[2] = 64; // command
+            // rf address from, always zero
+            writeRfAddress(target, header, 6);
+            headers.put(target, header);
+        }
+        // a thermostat can be moved to another room and the group header is shared by all rooms
+        header[9] = (byte) room.getId();
+        System.arraycopy(header, 0, request, 0, HEADER_LENGTH);
+    }
+
+    private int writeFrame(int length, ByteBuffer frame) {
+        int size = frameSize(length);
+        if (frame.remaining() < size) {
+            throw new BufferOverflowException();
+        }
+        frame.put((byte) 's').put((byte) ':');
+        for (int i = 0; i < length; i += 3) {
+            int remaining = length - i;
+            int bits = (request[i] & 0xff) << 16
+                    | (remaining > 1 ? (request[i + 1] & 0xff) << 8 : 0)
+                    | (remaining > 2 ? request[i + 2] & 0xff : 0);
+            frame.put(BASE64[bits >>> 18]);
+            frame.put(BASE64[bits >>> 12 & 0x3f]);
+            frame.put(remaining > 1 ? BASE64[bits >>> 6 & 0x3f] : (byte) '=');
+            frame.put(remaining > 2 ? BASE64[bits & 0x3f] : (byte) '=');
+        }
+        frame.put((byte) '\r').put((byte) '\n');
+        return size;
+    }
+
+    private static void writeRfAddress(int address, byte[] bytes, int offset) {
+        bytes[offset] = (byte) (address >> 16);
+        bytes[offset + 1] = (byte) (address >> 8);
+        bytes[offset + 2] = (byte) address;
+    }
+
+    // prefix, padded Base64 and CRLF
+    private static int frameSize(int requestLength) {
+        return 2 + (requestLength + 2) / 3 * 4 + 2;
+    }
+}
@@ -15,16 +15,16 @@
  */
 package de.spinscale.maxcube.data;
 
-import de.spinscale.maxcube.entities.Device;
 import de.spinscale.maxcube.entities.Room;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 public class Generator {
 
@@ -44,32 +44,19 @@ public class Generator {
         bos.write(address);
     }
 
+    /**
+     * Encodes a single command with a new encoder, the clients keep their own {@link CommandEncoder} instead
+     */
     public static String writeHolidayRequest(Room room, LocalDateTime endDate, int temperature) throws IOException {
-        if (temperature > 31) {
-            throw new IllegalArgumentException("Temperature must be between 0 and 31 °C");
-        }
-
-        endDate = roundEndDateToTheNextHalfHour(endDate);
-        DateTimeFormatter df = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm");
-        logger.info("Setting room [{}] to [{}] °C till [{}]", room.getName(), temperature, endDate.format(df));
-
-        Device thermostat = room.findThermostat();
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            writeSetTemperatureRequest(bos, room.getId(), thermostat.getRfaddress());
-
-            // mode & temperature, boost mode is 11 at the beginning, temperature does not matter
-            // boost is 192/11, vacation is 128/10, plus the temperature times 2
-            bos.write(128 + temperature * 2);
-
-            // date until
-            writeDateTimeUntil(endDate, bos);
-
-            String base64 = Base64.getEncoder().encodeToString(bos.toByteArray());
-            return "s:"  + base64;
-        }
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        new CommandEncoder().encodeHoliday(room, endDate, temperature, frame);
+        return toString(frame);
     }
 
-    static LocalDateTime roundEndDateToTheNextHalfHour(LocalDateTime date) {
+    /**
+     * @return The end date as sent to the cube, which only supports steps of half an hour
+     */
+    public static LocalDateTime roundEndDateToTheNextHalfHour(LocalDateTime date) {
         if (date == null) {
             throw new IllegalArgumentException("Date may not be null");
         }
@@ -84,6 +71,12 @@ public class Generator {
     }
 
     public static void writeDateTimeUntil(LocalDateTime dateTime, ByteArrayOutputStream bos) {
+        byte[] bytes = new byte[3];
+        writeDateTimeUntil(dateTime, bytes, 0);
+        bos.write(bytes, 0, bytes.length);
+    }
+
+    public static void writeDateTimeUntil(LocalDateTime dateTime, byte[] bytes, int offset) {
         // this is frigging confusing.. who the hell did think about this...
         // the first three bits are the months
         // next five bits are the day
@@ -97,40 +90,26 @@ public class Generator {
         // int month = (positiveFirst >> 5 << 1) + (64 >> 6 & 1);
         int month = dateTime.getMonthValue();
         int monthAndDay = (month << 4 & 224) + dateTime.getDayOfMonth();
-        bos.write(monthAndDay);
+        bytes[offset] = (byte) monthAndDay;
 
         int monthAndYear = (month % 2 == 1 ? 128 : 0) + (dateTime.getYear() - 2000);
-        bos.write(monthAndYear);
+        bytes[offset + 1] = (byte) monthAndYear;
 
         int halfhours = (dateTime.getHour() * 2) + (dateTime.getMinute() == 30 ? 1 : 0);
-        bos.write(halfhours);
+        bytes[offset + 2] = (byte) halfhours;
     }
 
+    /**
+     * Encodes a single command with a new encoder, the clients keep their own {@link CommandEncoder} instead
+     */
     public static String writeBoostRequest(Room room) throws IOException {
-        Device thermostat = room.findThermostat();
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            writeSetTemperatureRequest(bos, room.getId(), thermostat.getRfaddress());
-            // mode & temperature, boost mode is 11 at the beginning, temperature does not matter
-            bos.write(192);
-
-            String base64 = Base64.getEncoder().encodeToString(bos.toByteArray());
-            return "s:" + base64;
-        }
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        new CommandEncoder().encodeBoost(room, frame);
+        return toString(frame);
     }
 
-    private static void writeSetTemperatureRequest(ByteArrayOutputStream bos, int roomId, int thermostatRfAddress) {
-        bos.write(0); // unknown
-        bos.write(4); // rf flags
-        bos.write(64); // command
-
-        // rf address from
-        Generator.writeRfAddress(0, bos);
-
-        // rf address to
-        Generator.writeRfAddress(thermostatRfAddress, bos);
-        //Generator.writeRfAddress(room.getRfaddress(), bos);
-
-        // room number
-        bos.write(roomId);
+    // the frame without its line terminator, see CommandEncoder
+    private static String toString(ByteBuffer frame) {
+        return new String(frame.array(), 0, frame.position() - 2, US_ASCII);
     }
 }
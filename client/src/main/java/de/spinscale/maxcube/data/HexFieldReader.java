@@ -0,0 +1,139 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reads the comma separated fields of lines like {@code H:} and {@code S:} in a single pass, converting hex fields
+ * straight to ints instead of splitting the line into strings first. An instance can be reset to read the next line
+ * and must not be shared between threads
+ */
+public final class HexFieldReader {
+
+    private static final byte[] HEX = new byte[128];
+
+    static {
+        Arrays.fill(HEX, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX['a' + i] = (byte) (10 + i);
+            HEX['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private CharSequence line;
+    private int position;
+
+    /**
+     * @param position  The start of the first field, usually 2 to skip the prefix of the line
+     */
+    public HexFieldReader reset(CharSequence line, int position) {
+        this.line = line;
+        this.position = position;
+        return this;
+    }
+
+    /**
+     * Reads the remaining digits of the current field and moves to the next field
+     */
+    public int readHex() {
+        int start = position;
+        int value = 0;
+        int digit;
+        while ((digit = readDigit()) >= 0) {
+            value = value << 4 | digit;
+        }
+        if (position == start) {
+            throw error("Expected a hex number");
+        }
+        skipSeparator();
+        return value;
+    }
+
+    /**
+     * Reads the next digits of the current field, like the year of the date field {@code 11010f}, staying in the field
+     */
+    public int readHex(int digits) {
+        int value = 0;
+        for (int i = 0; i < digits; i++) {
+            int digit = readDigit();
+            if (digit < 0) {
+                throw error("Expected " + digits + " hex digits");
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * @return The value of the next digit in the current field, -1 at the end of the field
+     * @throws NumberFormatException If the next character is neither a hex digit nor the end of the field
+     */
+    public int readDigit() {
+        if (position >= line.length() || line.charAt(position) == ',') {
+            return -1;
+        }
+        char c = line.charAt(position);
+        int digit = c < 128 ? HEX[c] : -1;
+        if (digit < 0) {
+            throw error("Illegal hex digit");
+        }
+        position++;
+        return digit;
+    }
+
+    /**
+     * Reads the remaining characters of the current field as they are and moves to the next field
+     */
+    public String readString() {
+        int start = position;
+        while (position < line.length() && line.charAt(position) != ',') {
+            position++;
+        }
+        String value = line.subSequence(start, position).toString();
+        skipSeparator();
+        return value;
+    }
+
+    /**
+     * Skips the rest of the current field
+     */
+    public void skip() {
+        while (position < line.length() && line.charAt(position) != ',') {
+            position++;
+        }
+        skipSeparator();
+    }
+
+    public boolean hasMoreFields() {
+        return position < line.length();
+    }
+
+    private void skipSeparator() {
+        if (position < line.length()) {
+            position++;
+        }
+    }
+
+    private NumberFormatException error(String reason) {
+        String message = String.format(Locale.ROOT, "%s at index [%s] of [%s]", reason, position, line);
+        return new NumberFormatException(message);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decodes the base64 encoded payload of {@code M:}, {@code C:} and {@code L:} lines into a scratch array, that
+ * is reused for every line. The returned cursor points into that array, so it is only valid until the next line
+ * is decoded and an instance must not be shared between threads
+ */
+public final class LineDecoder {
+
+    private static final int[] DECODE_TABLE = new int[128];
+
+    static {
+        Arrays.fill(DECODE_TABLE, -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODE_TABLE[alphabet.charAt(i)] = i;
+        }
+    }
+
+    private final ByteCursor cursor = new ByteCursor();
+    private byte[] scratch = new byte[256];
+
+    /**
+     * Decodes the last comma separated field of a line, or everything after the two byte prefix if there is no comma
+     * @param line  The line without delimiter, between position and limit. The position is not changed
+     */
+    public ByteCursor decodeLastField(ByteBuffer line) {
+        int start = line.position() + 2;
+        int end = line.limit();
+        for (int i = end - 1; i >= start; i--) {
+            if (line.get(i) == ',') {
+                start = i + 1;
+                break;
+            }
+        }
+
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        ensureCapacity((end - start) / 4 * 3 + 3);
+        for (int i = start; i < end; i++) {
+            int value = decode(line.get(i), i - start);
+            if (value == -2) {
+                break;
+            }
+            bits = ((bits << 6) | value) & 0xfff;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                scratch[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return cursor.reset(scratch, 0, length);
+    }
+
+    /**
+     * Same as {@link #decodeLastField(ByteBuffer)} for a line that has been read as string already
+     */
+    public ByteCursor decodeLastField(CharSequence line) {
+        int start = 2;
+        int end = line.length();
+        for (int i = end - 1; i >= start; i--) {
+            if (line.charAt(i) == ',') {
+                start = i + 1;
+                break;
+            }
+        }
+
+        int length = 0;
+        int bits = 0;
+        int bitCount = 0;
+        ensureCapacity((end - start) / 4 * 3 + 3);
+        for (int i = start; i < end; i++) {
+            int value = decode(line.charAt(i), i - start);
+            if (value == -2) {
+                break;
+            }
+            bits = ((bits << 6) | value) & 0xfff;
+            bitCount += 6;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                scratch[length++] = (byte) (bits >> bitCount);
+            }
+        }
+        return cursor.reset(scratch, 0, length);
+    }
+
+    /**
+     * @return The six bits of the character, -2 for padding or trailing whitespace, which ends the data
+     */
+    private static int decode(int c, int index) {
+        if (c == '=' || c == '\r' || c == '\n' || c == ' ') {
+            return -2;
+        }
+        int value = c >= 0 && c < 128 ? DECODE_TABLE[c] : -1;
+        if (value < 0) {
+            String message = String.format(Locale.ROOT, "Illegal base64 character [%s] at index [%s]", Integer.toHexString(c & 0xffff), index);
+            throw new IllegalArgumentException(message);
+        }
+        return value;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (scratch.length < capacity) {
+            scratch = new byte[Math.max(capacity, scratch.length * 2)];
+        }
+    }
+}
@@ -17,19 +17,29 @@ package de.spinscale.maxcube.data;
 
 import de.spinscale.maxcube.entities.Configuration;
 import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.CubeEvent;
 import de.spinscale.maxcube.entities.Device;
 import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.IntTable;
 import de.spinscale.maxcube.entities.Room;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
-import java.util.Base64;
-import java.util.stream.Collectors;
-
-import static java.nio.charset.StandardCharsets.UTF_8;
+import java.util.List;
+import java.util.Locale;
+
+import static de.spinscale.maxcube.entities.CubeEvent.Type.BATTERY_LOW;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.BATTERY_OK;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.CONFIGURED_TEMPERATURE_CHANGED;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.CURRENT_TEMPERATURE_CHANGED;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.MODE_CHANGED;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.VALVE_POSITION_CHANGED;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.WINDOW_CLOSED;
+import static de.spinscale.maxcube.entities.CubeEvent.Type.WINDOW_OPENED;
 
 /**
  * A parser that understands the initial reply of a cube after connecting to it
@@ -39,26 +49,62 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  *   https://github.com/ivesdebruycker/maxcube-cli
  *   http://www.domoticaforum.eu/viewtopic.php?f=66&t=6654
  *   https://github.com/Bouni/max-cube-protocol
+ *
+ * The base64 payloads are decoded into a buffer owned by the parser, so a parser must not be used by several
+ * threads at the same time
  */
 public class Parser {
 
     private static final Logger logger = LoggerFactory.getLogger(Parser.class);
 
+    private final LineDecoder decoder = new LineDecoder();
+    // the last configuration per rf address, reused as long as the cube sends the same bytes
+    private final IntTable<Configuration> configurations = new IntTable<>();
+
     public void parse(Cube cube, String input) throws IOException {
         if (input == null || input.trim().length() == 0) {
             throw new IllegalArgumentException("Empty input string");
         }
 
-        String command = input.substring(0, 2);
-        switch (command) {
-            case "C:":
-                parseConfiguration(cube, input);
+        // no substring, this runs for every device list
+        if (input.length() < 2 || input.charAt(1) != ':') {
+            return;
+        }
+        switch (input.charAt(0)) {
+            case 'C':
+                parseConfiguration(cube, decoder.decodeLastField(input));
                 break;
-            case "L:":
-                parseDeviceList(cube, input);
+            case 'L':
+                parseDeviceList(cube, decoder.decodeLastField(input));
                 break;
-            case "M:":
-                parseMeta(cube, input);
+            case 'M':
+                parseMeta(cube, decoder.decodeLastField(input));
+                break;
+        }
+    }
+
+    /**
+     * Parses a line straight from the buffer it has been read into, without creating a string first
+     * @param line  The line without delimiter between position and limit. The position is not changed
+     */
+    public void parse(Cube cube, ByteBuffer line) throws IOException {
+        if (line.remaining() < 2) {
+            throw new IllegalArgumentException("Empty input");
+        }
+
+        int position = line.position();
+        if (line.get(position + 1) != ':') {
+            return;
+        }
+        switch (line.get(position)) {
+            case 'C':
+                parseConfiguration(cube, decoder.decodeLastField(line));
+                break;
+            case 'L':
+                parseDeviceList(cube, decoder.decodeLastField(line));
+                break;
+            case 'M':
+                parseMeta(cube, decoder.decodeLastField(line));
                 break;
         }
     }
@@ -79,88 +125,212 @@ public class Parser {
     }
 
     void parseDeviceList(Cube cube, String input) throws IOException {
-        byte[] data = Base64.getDecoder().decode(input.substring(2).getBytes(UTF_8));
-
-        // http://www.domoticaforum.eu/viewtopic.php?f=66&t=6654
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data)) {
-            while (bis.available() > 0) {
-                // eco buttons have 8, vales have 11, wall mounted thermostat have 12
-                int submessageLength = bis.read();
-
-                int rfaddress = readRfAddress(bis);
-                Room room = cube.findRoomForDevice(rfaddress);
-                Device device = cube.findDeviceByRfAddress(rfaddress);
-
-                logger.info("Reading device list for device {}, ", cube.findDeviceByRfAddress(rfaddress));
-
-                // unknown
-                bis.read();
-                // status
-                int flagsTwo = bis.read();
-                // another status, see above link, contains current mode
-                int flagsOne = bis.read();
-                // boolean dstActive =    (currentMode & (1 << 3)) == 0;
-                // boolean gatewayKnown = (currentMode & (1 << 4)) == 0;
-                // boolean panelLocked =  (currentMode & (1 << 5)) == 0;
-                // boolean linkError =    (currentMode & (1 << 6)) == 0;
-                boolean lowBattery =   (flagsOne & (1 << 7)) == 1;
-                Mode mode = Mode.from(flagsOne);
-
-
-                if (device.getType() == DeviceType.SHUTTER_CONTACT) {
-                    room.setWindowOpen(mode == Mode.VACATION);
-                }
+        parseDeviceList(cube, decoder.decodeLastField(input));
+    }
 
-                if (submessageLength <= 6) {
-                    continue;
-                }
+    // http://www.domoticaforum.eu/viewtopic.php?f=66&t=6654
+    // runs on every poll, so nothing is allocated unless a value changed and listeners need to be notified
+    private void parseDeviceList(Cube cube, ByteCursor bis) {
+        while (bis.available() > 0) {
+            // eco buttons have 8, vales have 11, wall mounted thermostat have 12
+            int submessageLength = bis.read();
+
+            int rfaddress = bis.readRfAddress();
+            Room room = cube.findRoomForDevice(rfaddress);
+            Device device = cube.findDeviceByRfAddress(rfaddress);
+
+            if (logger.isTraceEnabled()) {
+                logger.trace("Reading device list for device {}", device);
+            }
 
-                int valvePositionInPercent = bis.read();
-                room.setValvePositionInPercent(valvePositionInPercent);
-                double temperatureSetPoint = bis.read() / 2.0;
-                room.setConfiguredTemperature(temperatureSetPoint);
-
-                // this is a shitty hack and does not show the real temp
-                // the real temp is only available when you have a wall mounted thermostat
-                if (device.getType().isThermostat()) {
-                    if (mode == Mode.VACATION) {
-                        LocalDateTime endTime = readDateTimeUntil(bis);
-                        room.findThermostat().setEndTime(endTime);
-                    } else {
-                        // see https://github.com/ivesdebruycker/maxcube/blob/master/maxcube-commandparser.js#L278
-                        int firstDateOrTemp = bis.read();
-                        int secondDateOrTemp = bis.read();
-                        bis.read(); // half hours, we dont care as this is not a date;
-                        double temp = firstDateOrTemp != 0 ? 25.5 : 0.0 + secondDateOrTemp / 10.0;
-                        room.setCurrentTemperature(temp);
+            // unknown
+            bis.read();
+            // status
+            int flagsTwo = bis.read();
+            // another status, see above link, contains current mode
+            int flagsOne = bis.read();
+            // boolean dstActive =    (currentMode & (1 << 3)) == 0;
+            // boolean gatewayKnown = (currentMode & (1 << 4)) == 0;
+            // boolean panelLocked =  (currentMode & (1 << 5)) == 0;
+            // boolean linkError =    (currentMode & (1 << 6)) == 0;
+            boolean lowBattery =   (flagsOne & (1 << 7)) != 0;
+            Mode mode = Mode.from(flagsOne);
+
+
+            if (device.getType() == DeviceType.SHUTTER_CONTACT) {
+                device.setWindowOpen(mode == Mode.VACATION);
+            }
+
+            if (submessageLength <= 6) {
+                continue;
+            }
+
+            device.setValvePositionInPercent(bis.read());
+            device.setConfiguredTemperature(bis.read() / 2.0);
+
+            // this is a shitty hack and does not show the real temp
+            // the real temp is only available when you have a wall mounted thermostat
+            if (device.getType().isThermostat()) {
+                if (mode == Mode.VACATION) {
+                    int first = bis.read();
+                    int second = bis.read();
+                    int halfHours = bis.read();
+                    // only create a new date if it differs from the known one
+                    if (!isDateTimeUntil(device.getEndTime(), first, second, halfHours)) {
+                        device.setEndTime(toDateTimeUntil(first, second, halfHours));
                     }
+                } else {
+                    // see https://github.com/ivesdebruycker/maxcube/blob/master/maxcube-commandparser.js#L278
+                    int firstDateOrTemp = bis.read();
+                    int secondDateOrTemp = bis.read();
+                    bis.read(); // half hours, we dont care as this is not a date;
+                    device.setCurrentTemperature(firstDateOrTemp != 0 ? 25.5 : 0.0 + secondDateOrTemp / 10.0);
                 }
+            }
 
-                //  this is where the real temperate from the wall mounted thermostat can be read
-                if (submessageLength > 11) {
-                    bis.skip(submessageLength - 11);
-                }
+            //  this is where the real temperate from the wall mounted thermostat can be read
+            if (submessageLength > 11) {
+                bis.skip(submessageLength - 11);
+            }
 
+            if (device.getMode() != mode) {
+                Mode previous = device.getMode();
                 device.setMode(mode);
+                fire(cube, MODE_CHANGED, room, device, previous, mode);
+            }
+            if (device.isLowBattery() != lowBattery) {
                 device.setLowBattery(lowBattery);
+                fire(cube, lowBattery ? BATTERY_LOW : BATTERY_OK, room, device, !lowBattery, lowBattery);
             }
         }
+
+        List<Room> rooms = cube.getRooms();
+        for (int i = 0; i < rooms.size(); i++) {
+            updateRoom(cube, rooms.get(i));
+        }
+    }
+
+    /**
+     * Derives the values of a room from the values its devices reported, so that devices reporting different values
+     * do not make the room flip between them. The valve position is the one of the most open valve, the window is
+     * open if any window contact reports it open. Temperatures are taken from the first thermostat of the room, where
+     * wall mounted thermostats are preferred, as they measure the real room temperature
+     */
+    private static void updateRoom(Cube cube, Room room) {
+        Device valve = null;
+        Device thermostat = null;
+        Device windowContact = null;
+        List<Device> devices = room.getDevices();
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            if (device.getValvePositionInPercent() >= 0
+                    && (valve == null || device.getValvePositionInPercent() > valve.getValvePositionInPercent())) {
+                valve = device;
+            }
+            if (device.getType().isThermostat() && !Double.isNaN(device.getConfiguredTemperature())
+                    && (thermostat == null || isPreferred(device, thermostat))) {
+                thermostat = device;
+            }
+            if (device.getType() == DeviceType.SHUTTER_CONTACT && (windowContact == null || device.isWindowOpen() && !windowContact.isWindowOpen())) {
+                windowContact = device;
+            }
+        }
+
+        if (windowContact != null && room.isWindowOpen() != windowContact.isWindowOpen()) {
+            boolean windowOpen = windowContact.isWindowOpen();
+            room.setWindowOpen(windowOpen);
+            fire(cube, windowOpen ? WINDOW_OPENED : WINDOW_CLOSED, room, windowContact, !windowOpen, windowOpen);
+        }
+        if (valve != null && room.getValvePositionInPercent() != valve.getValvePositionInPercent()) {
+            int previous = room.getValvePositionInPercent();
+            room.setValvePositionInPercent(valve.getValvePositionInPercent());
+            fire(cube, VALVE_POSITION_CHANGED, room, valve, previous, valve.getValvePositionInPercent());
+        }
+        if (thermostat == null) {
+            return;
+        }
+        if (Double.compare(room.getConfiguredTemperature(), thermostat.getConfiguredTemperature()) != 0) {
+            double previous = room.getConfiguredTemperature();
+            room.setConfiguredTemperature(thermostat.getConfiguredTemperature());
+            fire(cube, CONFIGURED_TEMPERATURE_CHANGED, room, thermostat, previous, thermostat.getConfiguredTemperature());
+        }
+        // in vacation mode the device list contains the end date instead of the temperature
+        double currentTemperature = thermostat.getCurrentTemperature();
+        if (!Double.isNaN(currentTemperature) && Double.compare(room.getCurrentTemperature(), currentTemperature) != 0) {
+            double previous = room.getCurrentTemperature();
+            room.setCurrentTemperature(currentTemperature);
+            fire(cube, CURRENT_TEMPERATURE_CHANGED, room, thermostat, previous, currentTemperature);
+        }
+    }
+
+    private static boolean isPreferred(Device device, Device thermostat) {
+        return device.getType() == DeviceType.WALLTHERMOSTAT && thermostat.getType() != DeviceType.WALLTHERMOSTAT;
+    }
+
+    private static void fire(Cube cube, CubeEvent.Type type, Room room, Device device, Object oldValue, Object newValue) {
+        if (cube.hasListeners()) {
+            cube.fireEvent(new CubeEvent(type, room, device, oldValue, newValue));
+        }
+    }
+
+    // the primitive variants only box the values if there is a listener
+
+    private static void fire(Cube cube, CubeEvent.Type type, Room room, Device device, double oldValue, double newValue) {
+        if (cube.hasListeners()) {
+            cube.fireEvent(new CubeEvent(type, room, device, oldValue, newValue));
+        }
+    }
+
+    private static void fire(Cube cube, CubeEvent.Type type, Room room, Device device, int oldValue, int newValue) {
+        if (cube.hasListeners()) {
+            cube.fireEvent(new CubeEvent(type, room, device, oldValue, newValue));
+        }
+    }
+
+    private static void fire(Cube cube, CubeEvent.Type type, Room room, Device device, boolean oldValue, boolean newValue) {
+        if (cube.hasListeners()) {
+            cube.fireEvent(new CubeEvent(type, room, device, oldValue, newValue));
+        }
     }
 
     /**
      * C:0b9792,BASE64
      */
     void parseConfiguration(Cube cube, String input) throws IOException {
-        // TODO deal with the non base64 encoded part
-        String[] metadata = input.split(",");
-        String base64 = metadata[metadata.length - 1];
-        byte[] data = Base64.getDecoder().decode(base64.getBytes(UTF_8));
+        parseConfiguration(cube, decoder.decodeLastField(input));
+    }
+
+    // TODO deal with the non base64 encoded part
+    private void parseConfiguration(Cube cube, ByteCursor bis) {
+        // the rf address follows the length byte
+        int rfAddress = bis.peek(1) << 16 | bis.peek(2) << 8 | bis.peek(3);
+        Configuration configuration = Configuration.readFrom(bis, configurations.get(rfAddress));
+        attachConfiguration(cube, configuration);
+    }
 
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data)) {
-            Configuration configuration = Configuration.readFrom(bis);
-            Device device = cube.findDeviceBySerial(configuration.getSerial());
-            device.setConfiguration(configuration);
+    /**
+     * Decodes a C: line without attaching it to a device. Unlike all other methods, this uses its own buffer and
+     * can be called from several threads, see {@link #attachConfiguration(Cube, Configuration)}
+     */
+    public static Configuration decodeConfiguration(String line) {
+        if (line == null || !line.startsWith("C:")) {
+            throw new IllegalArgumentException("Not a configuration line [" + line + "]");
         }
+        return Configuration.readFrom(new LineDecoder().decodeLastField(line));
+    }
+
+    /**
+     * Attaches a configuration decoded by {@link #decodeConfiguration(String)} to its device. The previous
+     * configuration of the device is kept, if nothing changed
+     */
+    public void attachConfiguration(Cube cube, Configuration configuration) {
+        Configuration previous = configurations.get(configuration.getRfaddress());
+        if (previous != null && previous.contentEquals(configuration)) {
+            configuration = previous;
+        }
+        configurations.put(configuration.getRfaddress(), configuration);
+        Device device = cube.findDeviceBySerial(configuration.getSerial());
+        device.setConfiguration(configuration);
     }
 
     /**
@@ -170,32 +340,33 @@ public class Parser {
      *
      */
     void parseMeta(Cube cube, String input) throws IOException {
-        String[] metadata = input.split(",");
-        String base64 = metadata[metadata.length - 1];
-        byte[] data = Base64.getDecoder().decode(base64.getBytes(UTF_8));
-
-        try (ByteArrayInputStream bis = new ByteArrayInputStream(data)) {
-            // first numbers are unknown
-            bis.read(); bis.read();
-
-            // read rooms
-            int roomCount = bis.read();
-            for (int i = 0; i < roomCount; i++) {
-                cube.getRooms().add(Room.read(bis));
-            }
+        parseMeta(cube, decoder.decodeLastField(input));
+    }
 
-            // read devices and map to rooms
-            int deviceCount = bis.read();
-            for (int i = 0; i < deviceCount; i++) {
-                Device device = Device.readFrom(bis);
-                int roomId = bis.read();
-                Room room = cube.findRoom(roomId);
-                room.getDevices().add(device);
-            }
+    private void parseMeta(Cube cube, ByteCursor bis) {
+        // first numbers are unknown
+        bis.read(); bis.read();
+
+        // read rooms, the ids are a single byte
+        Room[] roomsById = new Room[256];
+        int roomCount = bis.read();
+        for (int i = 0; i < roomCount; i++) {
+            Room room = Room.read(bis);
+            cube.addRoom(room);
+            roomsById[room.getId()] = room;
+        }
 
-            // another last unknown byte
-            bis.read();
+        // read devices and map to rooms, without rebuilding the index of the cube for every device
+        int deviceCount = bis.read();
+        for (int i = 0; i < deviceCount; i++) {
+            Device device = Device.readFrom(bis);
+            int roomId = bis.read();
+            Room room = roomId >= 0 && roomsById[roomId] != null ? roomsById[roomId] : cube.findRoom(roomId);
+            cube.addDevice(room, device);
         }
+
+        // another last unknown byte
+        bis.read();
     }
 
     /**
@@ -221,24 +392,61 @@ public class Parser {
             throw new IllegalStateException("Expecting input to start with header line");
         }
 
-        String[] fields = input.split(",");
-        String serial = fields[0].substring(2);
-        int rfAddress = Integer.parseInt(fields[1], 16);
-        String version = fields[2].replaceFirst("^0", "");
-        String firmwareVersion = version.chars().mapToObj(i -> String.valueOf(Integer.parseInt(String.valueOf((char) i), 16))).collect(Collectors.joining("."));
+        HexFieldReader fields = new HexFieldReader().reset(input, 2);
+        String serial = fields.readString();
+        int rfAddress = fields.readHex();
+        String firmwareVersion = readFirmwareVersion(fields);
+        // unknown fields
+        fields.skip();
+        fields.skip();
+
+        int dutyCycle = fields.readHex();
+        int freeMemorySlots = fields.readHex();
 
-        int year = 2000 + Integer.parseInt(fields[7].substring(0, 2), 16);
+        int year = 2000 + fields.readHex(2);
         // month starts at 1
-        int month = Integer.parseInt(fields[7].substring(2, 4), 16);
-        int day = Integer.parseInt(fields[7].substring(4, 6), 16);
-        int hour = Integer.parseInt(fields[8].substring(0, 2), 16);
-        int minute = Integer.parseInt(fields[8].substring(2, 4), 16);
+        int month = fields.readHex(2);
+        int day = fields.readHex(2);
+        fields.skip();
+        int hour = fields.readHex(2);
+        int minute = fields.readHex(2);
         LocalDateTime cubeDateTime = LocalDateTime.of(year, month, day, hour, minute);
-        return new Cube(serial, rfAddress, firmwareVersion, cubeDateTime);
+        Cube cube = new Cube(serial, rfAddress, firmwareVersion, cubeDateTime);
+        cube.setDutyCycle(dutyCycle);
+        cube.setFreeMemorySlots(freeMemorySlots);
+        return cube;
+    }
+
+    // the version 0113 stands for 1.1.3, every digit is a part of the version
+    private static String readFirmwareVersion(HexFieldReader fields) {
+        StringBuilder version = new StringBuilder();
+        int digit = fields.readDigit();
+        if (digit == 0) {
+            digit = fields.readDigit();
+        }
+        for (; digit >= 0; digit = fields.readDigit()) {
+            if (version.length() > 0) {
+                version.append('.');
+            }
+            version.append(digit);
+        }
+        fields.skip();
+        return version.toString();
     }
 
-    // S:00,0,31
     public boolean parseResponseS(String input) {
+        return parseCommandResponse(input).isAccepted();
+    }
+
+    /**
+     * Format of S: type
+     * S:00,0,31
+     *
+     * 1: duty cycle as hex number
+     * 2: command result, 0 if the command was accepted, 1 if not
+     * 3: free memory slots as hex number
+     */
+    public CommandResponse parseCommandResponse(String input) {
         if (input == null || input.trim().length() == 0) {
             throw new IllegalArgumentException("Empty input string");
         }
@@ -247,13 +455,47 @@ public class Parser {
             throw new IllegalStateException("Expecting input to start with [S:], but was " + input);
         }
 
-        String data = input.substring(2);
-        String[] entries = data.split(",", 3);
-        int dutyCycle = Integer.valueOf(entries[0], 16);
-        boolean commandResult = entries[1].equals("0");
-        int freeMemorySlots = Integer.valueOf(entries[2], 16);
+        // command replies are parsed on whatever thread completes the command, so this is kept thread safe
+        HexFieldReader fields = new HexFieldReader().reset(input, 2);
+        int dutyCycle = fields.readHex();
+        boolean commandResult = fields.readHex() == 0;
+        int freeMemorySlots = fields.readHex();
+
+        return new CommandResponse(dutyCycle, commandResult, freeMemorySlots);
+    }
+
+    /**
+     * The reply of the cube to a command, the duty cycle is the percentage of the allowed radio transmission time
+     * which has been used within the last hour. Commands are rejected once it reaches 100
+     */
+    public static class CommandResponse {
+
+        private final int dutyCycle;
+        private final boolean accepted;
+        private final int freeMemorySlots;
+
+        public CommandResponse(int dutyCycle, boolean accepted, int freeMemorySlots) {
+            this.dutyCycle = dutyCycle;
+            this.accepted = accepted;
+            this.freeMemorySlots = freeMemorySlots;
+        }
+
+        public int getDutyCycle() {
+            return dutyCycle;
+        }
 
-        return commandResult;
+        public boolean isAccepted() {
+            return accepted;
+        }
+
+        public int getFreeMemorySlots() {
+            return freeMemorySlots;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "duty cycle [%s] accepted [%s] free memory slots [%s]", dutyCycle, accepted, freeMemorySlots);
+        }
     }
 
     public static int readRfAddress(ByteArrayInputStream bis) {
@@ -265,10 +507,19 @@ public class Parser {
 
     // see https://github.com/Bouni/max-cube-protocol/blob/master/L-Message.md
     static LocalDateTime readDateTimeUntil(ByteArrayInputStream bis) {
-        int first = bis.read();
-        int second = bis.read();
-        int third = bis.read();
+        return toDateTimeUntil(bis.read(), bis.read(), bis.read());
+    }
 
+    private static boolean isDateTimeUntil(LocalDateTime dateTime, int first, int second, int halfHours) {
+        return dateTime != null
+                && dateTime.getYear() == (second & 31) + 2000
+                && dateTime.getMonthValue() == ((first & 0xFF) >> 5 << 1) + (second >> 7 & 1)
+                && dateTime.getDayOfMonth() == (first & 31)
+                && dateTime.getHour() == halfHours / 2
+                && dateTime.getMinute() == (halfHours % 2) * 30;
+    }
+
+    private static LocalDateTime toDateTimeUntil(int first, int second, int third) {
         int firstPositive = first & 0xFF; // unsigned
         int month = (firstPositive >> 5 << 1) + (second >> 7 & 1);
         int day = firstPositive & 31;
@@ -276,7 +527,9 @@ public class Parser {
 
         int halfhours = third;
 
-        logger.debug("Found date: {}-{}-{} half hours {}, orig ints [{}, {}, {}]", year, month, day, halfhours, first, second, third);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Found date: {}-{}-{} half hours {}, orig ints [{}, {}, {}]", year, month, day, halfhours, first, second, third);
+        }
         return LocalDateTime.of(year, month, day, halfhours / 2, (halfhours % 2) * 30);
     }
 }
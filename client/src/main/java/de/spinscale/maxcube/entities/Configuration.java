@@ -15,23 +15,31 @@
  */
 package de.spinscale.maxcube.entities;
 
-import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.data.ByteCursor;
 
-import java.io.ByteArrayInputStream;
+import java.util.Arrays;
 import java.util.Locale;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 public class Configuration {
 
+    // length, rf address, type, three unknown bytes and the serial precede the type specific part
+    static final int HEADER_LENGTH = 18;
+
     final DeviceType type;
     final int rfaddress;
     final String serial;
+    // the decoded payload, null if the configuration has not been parsed
+    final byte[] data;
 
     public Configuration(DeviceType type, int rfaddress, String serial) {
+        this(type, rfaddress, serial, null);
+    }
+
+    Configuration(DeviceType type, int rfaddress, String serial, byte[] data) {
         this.type = type;
         this.rfaddress = rfaddress;
         this.serial = serial;
+        this.data = data;
     }
 
     @Override
@@ -39,58 +47,168 @@ public class Configuration {
         return String.format(Locale.ROOT, "serial [%s] type [%s]", serial, type);
     }
 
-    public static Configuration readFrom(ByteArrayInputStream bis) {
-        int len = bis.read();
+    public static Configuration readFrom(ByteCursor bis) {
+        return readFrom(bis, null);
+    }
+
+    /**
+     * Only the header of the configuration is decoded, the type specific values are decoded on first access
+     * @param previous  The configuration last read for this device. It is returned as is, if the bytes did not change,
+     *                  so consumers can rely on identity to detect changes
+     */
+    public static Configuration readFrom(ByteCursor bis, Configuration previous) {
+        if (previous != null && previous.data != null && bis.contentEquals(previous.data)) {
+            bis.skip(previous.data.length);
+            return previous;
+        }
+
+        byte[] data = new byte[bis.available()];
+        bis.read(data, 0, data.length);
+        ByteCursor cursor = new ByteCursor(data);
+        int len = cursor.read();
 
-        int rfAddress = Parser.readRfAddress(bis);
-        DeviceType type = DeviceType.fromId(bis.read());
+        int rfAddress = cursor.readRfAddress();
+        DeviceType type = DeviceType.fromId(cursor.read());
 
-        byte[] unknown = new byte[3];
-        bis.read(unknown, 0, unknown.length);
+        // unknown
+        cursor.skip(3);
 
-        byte[] serialBytes = new byte[10];
-        bis.read(serialBytes, 0, serialBytes.length);
-        String serial = new String(serialBytes, UTF_8);
+        String serial = cursor.readString(10);
 
         if (type == DeviceType.THERMOSTAST_PLUS || type == DeviceType.THERMOSTAST) {
-            double temperatureComfort = bis.read() / 2.0;
-            double temperatureEco = bis.read() / 2.0;
-            double temperatureSetpointMax = bis.read() / 2.0;
-            double temperatureSetpointMin = bis.read() / 2.0;
-            double temperatureOffset = bis.read() / 2.0 - 3.5;
-            double temperatureWindowOpen = bis.read() / 2.0;
-            int durationWindowOpen = bis.read();
-            int durationBoost = bis.read();
-            int decalcification = bis.read();
-            double valveMaximum = bis.read() * 100/255.0;
-            double valveOffset = bis.read() * 100/255.0;
-
-            // TODO decipher the weekly program, always has a length of 182
-            bis.skip(bis.available());
-
-            return new ValveConfiguration(type, rfAddress, serial,
-                    temperatureComfort, temperatureEco, temperatureSetpointMax, temperatureSetpointMin, temperatureOffset,
-                    temperatureWindowOpen, durationWindowOpen, durationBoost, decalcification, valveMaximum, valveOffset);
+            return new ValveConfiguration(type, rfAddress, serial, data);
         } else if (type == DeviceType.CUBE) {
             // TODO decipher the cube configuration
-            bis.skip(bis.available());
+            cursor.skip(cursor.available());
         }
 
-        if (bis.available() > 0) {
+        if (cursor.available() > 0) {
             String message = String.format(Locale.ROOT, "Device of type [%s] claims a length of [%s] and has [%s] unread bytes", type,
-                    len, bis.available());
+                    len, cursor.available());
             throw new IllegalStateException(message);
         }
 
-        return new Configuration(type, rfAddress, serial);
+        return new Configuration(type, rfAddress, serial, data);
+    }
+
+    /**
+     * @return true if both configurations were read from the same bytes
+     */
+    public boolean contentEquals(Configuration other) {
+        return data != null && other.data != null && Arrays.equals(data, other.data);
+    }
+
+    public DeviceType getType() {
+        return type;
+    }
+
+    public int getRfaddress() {
+        return rfaddress;
     }
 
     public String getSerial() {
         return serial;
     }
 
+    /**
+     * The configuration of a thermostat. Its values are decoded from the raw bytes when one of them is accessed first
+     */
     public static class ValveConfiguration extends Configuration {
 
+        // the temperatures and durations precede the weekly program
+        private static final int WEEKLY_PROGRAM_OFFSET = HEADER_LENGTH + 11;
+
+        // replaced once after decoding, decoding twice from different threads yields the same values
+        private volatile Values values;
+        private volatile WeeklyProgram weeklyProgram;
+
+        public ValveConfiguration(DeviceType type, int rfaddress, String serial, double temperatureComfort, double temperatureEco, double
+                temperatureSetpointMax, double temperatureSetpointMin, double temperatureOffset, double temperatureWindowOpen, int
+                durationWindowOpen, int durationBoost, int decalcification, double valveMaximum, double valveOffset) {
+            super(type, rfaddress,  serial);
+            this.values = new Values(temperatureComfort, temperatureEco, temperatureSetpointMax, temperatureSetpointMin,
+                    temperatureOffset, temperatureWindowOpen, durationWindowOpen, durationBoost, decalcification, valveMaximum,
+                    valveOffset);
+        }
+
+        ValveConfiguration(DeviceType type, int rfaddress, String serial, byte[] data) {
+            super(type, rfaddress, serial, data);
+        }
+
+        public double getTemperatureComfort() {
+            return values().temperatureComfort;
+        }
+
+        public double getTemperatureEco() {
+            return values().temperatureEco;
+        }
+
+        public double getTemperatureSetpointMax() {
+            return values().temperatureSetpointMax;
+        }
+
+        public double getTemperatureSetpointMin() {
+            return values().temperatureSetpointMin;
+        }
+
+        public double getTemperatureOffset() {
+            return values().temperatureOffset;
+        }
+
+        public double getTemperatureWindowOpen() {
+            return values().temperatureWindowOpen;
+        }
+
+        public int getDurationWindowOpen() {
+            return values().durationWindowOpen;
+        }
+
+        public int getDurationBoost() {
+            return values().durationBoost;
+        }
+
+        public int getDecalcification() {
+            return values().decalcification;
+        }
+
+        public double getValveMaximum() {
+            return values().valveMaximum;
+        }
+
+        public double getValveOffset() {
+            return values().valveOffset;
+        }
+
+        /**
+         * @return The weekly program, decoded on first access. Null if this configuration was not read from a cube
+         */
+        public WeeklyProgram getWeeklyProgram() {
+            WeeklyProgram weeklyProgram = this.weeklyProgram;
+            if (weeklyProgram == null && data != null) {
+                ByteCursor bis = new ByteCursor(data);
+                bis.skip(WEEKLY_PROGRAM_OFFSET);
+                weeklyProgram = WeeklyProgram.readFrom(bis);
+                this.weeklyProgram = weeklyProgram;
+            }
+            return weeklyProgram;
+        }
+
+        private Values values() {
+            Values values = this.values;
+            if (values == null) {
+                ByteCursor bis = new ByteCursor(data);
+                bis.skip(HEADER_LENGTH);
+                values = new Values(bis.read() / 2.0, bis.read() / 2.0, bis.read() / 2.0, bis.read() / 2.0,
+                        bis.read() / 2.0 - 3.5, bis.read() / 2.0, bis.read(), bis.read(), bis.read(),
+                        bis.read() * 100/255.0, bis.read() * 100/255.0);
+                this.values = values;
+            }
+            return values;
+        }
+    }
+
+    private static final class Values {
+
         final double temperatureComfort;
         final double temperatureEco;
         final double temperatureSetpointMax;
@@ -103,10 +221,9 @@ public class Configuration {
         final double valveMaximum;
         final double valveOffset;
 
-        public ValveConfiguration(DeviceType type, int rfaddress, String serial, double temperatureComfort, double temperatureEco, double
-                temperatureSetpointMax, double temperatureSetpointMin, double temperatureOffset, double temperatureWindowOpen, int
-                durationWindowOpen, int durationBoost, int decalcification, double valveMaximum, double valveOffset) {
-            super(type, rfaddress,  serial);
+        Values(double temperatureComfort, double temperatureEco, double temperatureSetpointMax, double temperatureSetpointMin,
+               double temperatureOffset, double temperatureWindowOpen, int durationWindowOpen, int durationBoost,
+               int decalcification, double valveMaximum, double valveOffset) {
             this.temperatureComfort = temperatureComfort;
             this.temperatureEco = temperatureEco;
             this.temperatureSetpointMax = temperatureSetpointMax;
@@ -15,17 +15,35 @@
  */
 package de.spinscale.maxcube.entities;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Cube extends Device {
 
+    private static final Logger logger = LoggerFactory.getLogger(Cube.class);
+
     final List<Room> rooms = new ArrayList<>();
+    private final List<CubeListener> listeners = new CopyOnWriteArrayList<>();
+    // listeners interested in a single room, by room id
+    private final Map<Integer, List<CubeListener>> roomListeners = new ConcurrentHashMap<>();
+    // checked for every parsed change, so it is kept up to date instead of iterating over all listeners
+    private volatile boolean hasListeners;
+    // replaced as a whole, so lookups from other threads never see a partially built index
+    private volatile Index index;
     private final String firmwareVersion;
     private final LocalDateTime date;
+    private int dutyCycle;
+    private int freeMemorySlots;
 
     public Cube(String serial, int rfAddress, String firmwareVersion, LocalDateTime date) {
         super(DeviceType.CUBE, "CUBE", serial, rfAddress);
@@ -33,19 +51,35 @@ public class Cube extends Device {
         this.date = date;
     }
 
+    /**
+     * Adds a room and keeps the lookup indexes up to date
+     */
+    public void addRoom(Room room) {
+        rooms.add(room);
+        index = null;
+    }
+
+    /**
+     * Adds a device to a room of this cube and keeps the lookup indexes up to date
+     */
+    public void addDevice(Room room, Device device) {
+        room.devices.add(device);
+        index = null;
+    }
+
     public Device findDeviceBySerial(String serial) {
         if (this.serial.equals(serial)) {
             return this;
         }
 
-        for (Room room : rooms) {
-            Optional<Device> device = room.devices.stream().filter(d -> d.getSerial().equals(serial)).findFirst();
-            if (device.isPresent()) {
-                return device.get();
-            }
+        Device device = index().devicesBySerial.get(serial);
+        if (device == null) {
+            device = rebuildIndex().devicesBySerial.get(serial);
         }
-
-        throw new IllegalArgumentException(String.format(Locale.ROOT, "Device with serial [%s] does not exist", serial));
+        if (device == null) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Device with serial [%s] does not exist", serial));
+        }
+        return device;
     }
 
     public Device findDeviceByRfAddress(int rfAddress) {
@@ -53,43 +87,87 @@ public class Cube extends Device {
             return this;
         }
 
-        for (Room room : rooms) {
-            Optional<Device> device = room.devices.stream().filter(d -> d.getRfaddress() == rfAddress).findFirst();
-            if (device.isPresent()) {
-                return device.get();
-            }
+        Device device = index().devicesByRfAddress.get(rfAddress);
+        if (device == null) {
+            device = rebuildIndex().devicesByRfAddress.get(rfAddress);
         }
-
-        throw new IllegalArgumentException(String.format(Locale.ROOT, "Device with rfAddress [%s] does not exist", rfAddress));
+        if (device == null) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Device with rfAddress [%s] does not exist", rfAddress));
+        }
+        return device;
     }
 
     public Room findRoomForDevice(int rfaddress) {
-        for (Room room : rooms) {
-            long count = room.devices.stream().filter(device -> device.rfaddress == rfaddress).count();
-            if (count > 0) {
-                return room;
-            }
+        Room room = index().roomsByDeviceRfAddress.get(rfaddress);
+        if (room == null) {
+            room = rebuildIndex().roomsByDeviceRfAddress.get(rfaddress);
         }
-
-        throw new IllegalArgumentException(String.format(Locale.ROOT, "No room with rfaddress [%s] found", rfaddress));
+        if (room == null) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "No room with rfaddress [%s] found", rfaddress));
+        }
+        return room;
     }
 
     public Room findRoom(String name) {
-        Optional<Room> optional = rooms.stream().filter(room -> room.name.equals(name)).findFirst();
-        if (optional.isPresent()) {
-            return optional.get();
+        Room room = index().roomsByName.get(name);
+        if (room == null) {
+            room = rebuildIndex().roomsByName.get(name);
         }
-
-        throw new IllegalArgumentException(String.format(Locale.ROOT, "Room with name [%s] does not exist", name));
+        if (room == null) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Room with name [%s] does not exist", name));
+        }
+        return room;
     }
 
     public Room findRoom(int id) {
-        Optional<Room> optional = rooms.stream().filter(room -> room.id == id).findFirst();
-        if (optional.isPresent()) {
-            return optional.get();
+        Room room = index().roomsById.get(id);
+        if (room == null) {
+            room = rebuildIndex().roomsById.get(id);
         }
+        if (room == null) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Room with id [%s] does not exist", id));
+        }
+        return room;
+    }
+
+    /**
+     * @return All devices except the cube itself by their rf address, read only
+     */
+    public Map<Integer, Device> getDevicesByRfAddress() {
+        return index().devicesByRfAddress.asMap();
+    }
+
+    /**
+     * @return All devices except the cube itself by their serial, read only
+     */
+    public Map<String, Device> getDevicesBySerial() {
+        return Collections.unmodifiableMap(index().devicesBySerial);
+    }
+
+    /**
+     * @return All rooms by their id, read only
+     */
+    public Map<Integer, Room> getRoomsById() {
+        return index().roomsById.asMap();
+    }
+
+    /**
+     * @return All rooms by their name, read only
+     */
+    public Map<String, Room> getRoomsByName() {
+        return Collections.unmodifiableMap(index().roomsByName);
+    }
+
+    private Index index() {
+        Index index = this.index;
+        return index != null ? index : rebuildIndex();
+    }
 
-        throw new IllegalArgumentException(String.format(Locale.ROOT, "Room with id [%s] does not exist", id));
+    // rooms and devices might have been added to the lists directly, so a miss rebuilds the index before giving up
+    private Index rebuildIndex() {
+        Index index = new Index(rooms);
+        this.index = index;
+        return index;
     }
 
     public List<Room> getRooms() {
@@ -104,8 +182,101 @@ public class Cube extends Device {
         return date;
     }
 
+    /**
+     * @return The percentage of the allowed radio transmission time used within the last hour, as last reported by the cube
+     */
+    public int getDutyCycle() {
+        return dutyCycle;
+    }
+
+    public void setDutyCycle(int dutyCycle) {
+        this.dutyCycle = dutyCycle;
+    }
+
+    /**
+     * @return The number of commands the cube is able to queue, as last reported by the cube
+     */
+    public int getFreeMemorySlots() {
+        return freeMemorySlots;
+    }
+
+    public void setFreeMemorySlots(int freeMemorySlots) {
+        this.freeMemorySlots = freeMemorySlots;
+    }
+
+    /**
+     * Adds a listener, which is notified about every change of a room or device read from the cube
+     */
+    public synchronized void addListener(CubeListener listener) {
+        listeners.add(listener);
+        hasListeners = true;
+    }
+
+    /**
+     * Adds a listener, which is only notified about changes of the given room and its devices
+     */
+    public synchronized void addListener(Room room, CubeListener listener) {
+        roomListeners.computeIfAbsent(room.getId(), id -> new CopyOnWriteArrayList<>()).add(listener);
+        hasListeners = true;
+    }
+
+    public synchronized void removeListener(CubeListener listener) {
+        listeners.remove(listener);
+        roomListeners.values().forEach(list -> list.remove(listener));
+        hasListeners = !listeners.isEmpty() || roomListeners.values().stream().anyMatch(list -> !list.isEmpty());
+    }
+
+    /**
+     * @return true if any listener is registered, so changes do not need to be tracked otherwise
+     */
+    public boolean hasListeners() {
+        return hasListeners;
+    }
+
+    /**
+     * Notifies all listeners of the room and all listeners of the whole cube, a failing listener does not affect the others
+     */
+    public void fireEvent(CubeEvent event) {
+        List<CubeListener> forRoom = roomListeners.get(event.getRoom().getId());
+        if (forRoom != null) {
+            forRoom.forEach(listener -> notify(listener, event));
+        }
+        listeners.forEach(listener -> notify(listener, event));
+    }
+
+    private void notify(CubeListener listener, CubeEvent event) {
+        try {
+            listener.onEvent(event);
+        } catch (RuntimeException e) {
+            logger.warn("Listener failed on event [{}]", event, e);
+        }
+    }
+
     @Override
     public String toString() {
         return String.format(Locale.ROOT, "serial [%s], rooms %s", serial, rooms);
     }
+
+    private static final class Index {
+
+        // int keyed tables, a boxed key would be allocated for every lookup while parsing
+        private final IntTable<Device> devicesByRfAddress = new IntTable<>();
+        private final IntTable<Room> roomsByDeviceRfAddress = new IntTable<>();
+        private final IntTable<Room> roomsById = new IntTable<>();
+        private final Map<String, Device> devicesBySerial = new HashMap<>();
+        private final Map<String, Room> roomsByName = new HashMap<>();
+
+        Index(List<Room> rooms) {
+            for (Room room : rooms) {
+                // the first room wins, like a linear search would
+                roomsById.putIfAbsent(room.id, room);
+                roomsByName.putIfAbsent(room.name, room);
+                for (Device device : room.devices) {
+                    devicesByRfAddress.putIfAbsent(device.rfaddress, device);
+                    devicesBySerial.putIfAbsent(device.serial, device);
+                    roomsByDeviceRfAddress.putIfAbsent(device.rfaddress, room);
+                }
+            }
+        }
+    }
 }
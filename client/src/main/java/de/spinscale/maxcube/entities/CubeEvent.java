@@ -0,0 +1,77 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import java.util.Locale;
+
+/**
+ * A change of a room or device, as read from the device list of the cube
+ */
+public class CubeEvent {
+
+    public enum Type {
+        CURRENT_TEMPERATURE_CHANGED,
+        CONFIGURED_TEMPERATURE_CHANGED,
+        VALVE_POSITION_CHANGED,
+        WINDOW_OPENED,
+        WINDOW_CLOSED,
+        MODE_CHANGED,
+        BATTERY_LOW,
+        BATTERY_OK
+    }
+
+    private final Type type;
+    private final Room room;
+    private final Device device;
+    private final Object oldValue;
+    private final Object newValue;
+
+    public CubeEvent(Type type, Room room, Device device, Object oldValue, Object newValue) {
+        this.type = type;
+        this.room = room;
+        this.device = device;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * @return The device which reported the change
+     */
+    public Device getDevice() {
+        return device;
+    }
+
+    public Object getOldValue() {
+        return oldValue;
+    }
+
+    public Object getNewValue() {
+        return newValue;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s room [%s] device [%s] [%s] -> [%s]", type, room.getName(), device.getSerial(), oldValue, newValue);
+    }
+}
@@ -15,15 +15,12 @@
  */
 package de.spinscale.maxcube.entities;
 
+import de.spinscale.maxcube.data.ByteCursor;
 import de.spinscale.maxcube.data.Parser;
 
-import java.io.ByteArrayInputStream;
 import java.time.LocalDateTime;
 import java.util.Locale;
 
-import static de.spinscale.maxcube.data.Parser.readRfAddress;
-import static java.nio.charset.StandardCharsets.UTF_8;
-
 public class Device {
 
     final DeviceType type;
@@ -34,6 +31,11 @@ public class Device {
     private boolean lowBattery;
     private Parser.Mode mode;
     private LocalDateTime endTime;
+    // the values of the last device list, the room derives its own values from them
+    private int valvePositionInPercent = -1;
+    private double configuredTemperature = Double.NaN;
+    private double currentTemperature = Double.NaN;
+    private boolean windowOpen;
 
     public Device(DeviceType type, String name, String serial, int rfaddress) {
         this.type = type;
@@ -47,28 +49,30 @@ public class Device {
         return String.format(Locale.ROOT, "name [%s], type [%s] serial [%s] rfaddress [%s]", name, type, serial, rfaddress);
     }
 
-    public static Device readFrom(ByteArrayInputStream bis) {
-        int type = bis.read();
+    public static Device readFrom(ByteCursor cursor) {
+        int type = cursor.read();
 
         // next three bytes are the rf address
-        int rfaddress = readRfAddress(bis);
+        int rfaddress = cursor.readRfAddress();
 
         // serial addr
-        byte[] serial = new byte[10];
-        bis.read(serial, 0, 10);
+        String serial = cursor.readString(10);
 
         // name of device
-        int nameLength = bis.read();
-        byte[] deviceName = new byte[nameLength];
-        bis.read(deviceName, 0, nameLength);
+        int nameLength = cursor.read();
+        String deviceName = cursor.readString(nameLength);
 
-        return new Device(DeviceType.fromId(type), new String(deviceName, UTF_8), new String(serial), rfaddress);
+        return new Device(DeviceType.fromId(type), deviceName, serial, rfaddress);
     }
 
     public DeviceType getType() {
         return type;
     }
 
+    public String getName() {
+        return name;
+    }
+
     public String getSerial() {
         return serial;
     }
@@ -81,9 +85,12 @@ public class Device {
         return configuration;
     }
 
+    /**
+     * Sets or replaces the configuration, the cube sends it again after it has been changed
+     */
     public void setConfiguration(Configuration configuration) {
-        if (this.configuration != null) {
-            throw new IllegalStateException("Cannot set configuration twice for " + toString());
+        if (configuration.rfaddress != rfaddress && configuration.serial != null && !configuration.serial.equals(serial)) {
+            throw new IllegalArgumentException("Configuration [" + configuration + "] does not belong to " + toString());
         }
         this.configuration = configuration;
     }
@@ -111,4 +118,48 @@ public class Device {
     public LocalDateTime getEndTime() {
         return endTime;
     }
+
+    public void setValvePositionInPercent(int valvePositionInPercent) {
+        this.valvePositionInPercent = valvePositionInPercent;
+    }
+
+    /**
+     * @return The valve position from the last device list, -1 if the device did not report one
+     */
+    public int getValvePositionInPercent() {
+        return valvePositionInPercent;
+    }
+
+    public void setConfiguredTemperature(double configuredTemperature) {
+        this.configuredTemperature = configuredTemperature;
+    }
+
+    /**
+     * @return The setpoint from the last device list, NaN if the device did not report one
+     */
+    public double getConfiguredTemperature() {
+        return configuredTemperature;
+    }
+
+    public void setCurrentTemperature(double currentTemperature) {
+        this.currentTemperature = currentTemperature;
+    }
+
+    /**
+     * @return The measured temperature from the last device list, NaN if the device did not report one
+     */
+    public double getCurrentTemperature() {
+        return currentTemperature;
+    }
+
+    public void setWindowOpen(boolean windowOpen) {
+        this.windowOpen = windowOpen;
+    }
+
+    /**
+     * @return true if this is a window contact, that reported an open window in the last device list
+     */
+    public boolean isWindowOpen() {
+        return windowOpen;
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps the devices of many cubes by their rf address, which is unique across all cubes.
+ *
+ * Registering a cube again replaces its devices, devices that are no longer part of the cube are dropped.
+ * All methods are thread safe
+ */
+public class DeviceRegistry {
+
+    private final IntTable<Device> devices = new IntTable<>();
+    private final IntTable<Cube> cubesByDevice = new IntTable<>();
+    // the rf addresses of the devices registered for every cube, keyed by the rf address of the cube
+    private final IntTable<int[]> devicesByCube = new IntTable<>();
+
+    /**
+     * Adds or replaces all devices of the cube. Devices, that were registered before, keep their position
+     */
+    public synchronized void register(Cube cube) {
+        IntTable<Device> added = new IntTable<>();
+        for (Room room : cube.getRooms()) {
+            for (Device device : room.getDevices()) {
+                added.putIfAbsent(device.getRfaddress(), device);
+            }
+        }
+        removeDevices(cube, added);
+        added.forEach((rfAddress, device) -> {
+            devices.put(rfAddress, device);
+            cubesByDevice.put(rfAddress, cube);
+        });
+        devicesByCube.put(cube.getRfaddress(), added.keys());
+    }
+
+    /**
+     * Removes all devices of the cube
+     */
+    public synchronized void unregister(Cube cube) {
+        removeDevices(cube, new IntTable<>(0));
+    }
+
+    public synchronized Optional<Device> findDevice(int rfAddress) {
+        return Optional.ofNullable(devices.get(rfAddress));
+    }
+
+    /**
+     * @return The most recently registered cube, the device belongs to
+     */
+    public synchronized Optional<Cube> findCube(int rfAddress) {
+        return Optional.ofNullable(cubesByDevice.get(rfAddress));
+    }
+
+    /**
+     * @return A copy of all devices, in the order they were first registered
+     */
+    public synchronized List<Device> getDevices() {
+        return devices.values();
+    }
+
+    public synchronized int size() {
+        return devices.size();
+    }
+
+    private void removeDevices(Cube cube, IntTable<Device> retained) {
+        int[] previous = devicesByCube.remove(cube.getRfaddress());
+        if (previous == null) {
+            return;
+        }
+        for (int rfAddress : previous) {
+            // another cube might have taken over the device in the meantime
+            if (!retained.containsKey(rfAddress) && isSameCube(cubesByDevice.get(rfAddress), cube)) {
+                devices.remove(rfAddress);
+                cubesByDevice.remove(rfAddress);
+            }
+        }
+    }
+
+    // polling returns a new cube instance every time, so cubes are compared by their rf address
+    private static boolean isSameCube(Cube registered, Cube cube) {
+        return registered != null && registered.getRfaddress() == cube.getRfaddress();
+    }
+}
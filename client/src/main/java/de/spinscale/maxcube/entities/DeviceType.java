@@ -39,6 +39,13 @@ public enum DeviceType {
         throw new IllegalArgumentException("Non existent device type serial: " + id);
     }
 
+    /**
+     * @return The id of the type as used by the cube
+     */
+    public int getId() {
+        return id;
+    }
+
     public boolean isThermostat() {
         return id == THERMOSTAST.id || id == THERMOSTAST_PLUS.id || id == WALLTHERMOSTAT.id;
     }
@@ -0,0 +1,369 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from int keys like rf addresses to objects, that does not box the keys.
+ *
+ * Entries are stored in insertion order in two plain arrays, the hash table itself only holds positions into them,
+ * using open addressing with linear probing. Iteration returns the values in insertion order, replacing the value
+ * of a key keeps its position. Null values are not supported and instances are not thread safe
+ */
+public final class IntTable<V> implements Iterable<V> {
+
+    /**
+     * Receives key and value of an entry, without boxing the key
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    // entries in insertion order, removed entries leave a null value until the next compaction
+    private int[] keys;
+    private Object[] values;
+    private int end;
+    private int size;
+    // position of an entry plus one, zero marks an empty slot
+    private int[] slots;
+    private int modCount;
+
+    public IntTable() {
+        this(16);
+    }
+
+    public IntTable(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expected size must not be negative, was " + expectedSize);
+        }
+        keys = new int[Math.max(4, expectedSize)];
+        values = new Object[keys.length];
+        slots = new int[slotCount(keys.length)];
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = findSlot(key);
+        return slot < 0 ? null : (V) values[slots[slot] - 1];
+    }
+
+    public boolean containsKey(int key) {
+        return findSlot(key) >= 0;
+    }
+
+    /**
+     * @return The previous value of the key, null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            int position = slots[slot] - 1;
+            V previous = (V) values[position];
+            values[position] = requireValue(value);
+            return previous;
+        }
+        add(key, requireValue(value));
+        return null;
+    }
+
+    /**
+     * @return The existing value, the new value is only stored if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(int key, V value) {
+        int slot = findSlot(key);
+        if (slot >= 0) {
+            return (V) values[slots[slot] - 1];
+        }
+        add(key, requireValue(value));
+        return null;
+    }
+
+    /**
+     * @return The removed value, null if the key did not exist
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = findSlot(key);
+        if (slot < 0) {
+            return null;
+        }
+        int position = slots[slot] - 1;
+        V previous = (V) values[position];
+        values[position] = null;
+        size--;
+        modCount++;
+        deleteSlot(slot);
+        return previous;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, end, null);
+        Arrays.fill(slots, 0);
+        end = 0;
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Calls the consumer for every entry in insertion order
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(EntryConsumer<? super V> consumer) {
+        int expectedModCount = modCount;
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null) {
+                consumer.accept(keys[i], (V) values[i]);
+                if (modCount != expectedModCount) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return All keys in insertion order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (values[i] != null) {
+                result[count++] = keys[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A copy of all values in insertion order
+     */
+    public List<V> values() {
+        List<V> result = new ArrayList<>(size);
+        for (V value : this) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * @return A read only view of this table as a map. Changes of the table are visible through the view, keys are only
+     *         boxed when the view is read
+     */
+    public Map<Integer, V> asMap() {
+        return new AbstractMap<Integer, V>() {
+            @Override
+            public V get(Object key) {
+                return key instanceof Integer ? IntTable.this.get((Integer) key) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return key instanceof Integer && IntTable.this.containsKey((Integer) key);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<Integer, V>> entrySet() {
+                return new AbstractSet<Entry<Integer, V>>() {
+                    @Override
+                    public Iterator<Entry<Integer, V>> iterator() {
+                        return new PositionIterator<Entry<Integer, V>>() {
+                            @Override
+                            @SuppressWarnings("unchecked")
+                            Entry<Integer, V> at(int position) {
+                                return new SimpleImmutableEntry<>(keys[position], (V) values[position]);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public Iterator<V> iterator() {
+        return new PositionIterator<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            V at(int position) {
+                return (V) values[position];
+            }
+        };
+    }
+
+    // iterates over the positions of all entries in insertion order, skipping removed ones
+    private abstract class PositionIterator<T> implements Iterator<T> {
+
+        private final int expectedModCount = modCount;
+        private int position = advance(0);
+
+        abstract T at(int position);
+
+        @Override
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            if (position >= end) {
+                throw new NoSuchElementException();
+            }
+            T next = at(position);
+            position = advance(position + 1);
+            return next;
+        }
+
+        private int advance(int from) {
+            while (from < end && values[from] == null) {
+                from++;
+            }
+            return from;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("{");
+        forEach((key, value) -> {
+            if (builder.length() > 1) {
+                builder.append(", ");
+            }
+            builder.append(key).append('=').append(value);
+        });
+        return builder.append('}').toString();
+    }
+
+    private void add(int key, Object value) {
+        if (end == keys.length) {
+            grow();
+        }
+        keys[end] = key;
+        values[end] = value;
+        end++;
+        size++;
+        modCount++;
+        int mask = slots.length - 1;
+        int slot = mix(key) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = end;
+    }
+
+    private int findSlot(int key) {
+        int mask = slots.length - 1;
+        for (int slot = mix(key) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slots[slot] - 1] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // backward shift deletion, so lookups never need to skip over tombstones
+    private void deleteSlot(int slot) {
+        int mask = slots.length - 1;
+        int hole = slot;
+        for (int i = (slot + 1) & mask; slots[i] != 0; i = (i + 1) & mask) {
+            int home = mix(keys[slots[i] - 1]) & mask;
+            // move the entry into the hole, unless its home lies cyclically between the hole and its current slot
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                slots[hole] = slots[i];
+                hole = i;
+            }
+        }
+        slots[hole] = 0;
+    }
+
+    // removed entries are compacted away first, only a table that is actually full grows
+    private void grow() {
+        int capacity = size * 2 > keys.length ? keys.length * 2 : keys.length;
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[capacity];
+        values = new Object[capacity];
+        int count = 0;
+        for (int i = 0; i < end; i++) {
+            if (oldValues[i] != null) {
+                keys[count] = oldKeys[i];
+                values[count] = oldValues[i];
+                count++;
+            }
+        }
+        end = count;
+        slots = new int[slotCount(capacity)];
+        int mask = slots.length - 1;
+        for (int i = 0; i < end; i++) {
+            int slot = mix(keys[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    // keeps at least half of the slots empty, so probe sequences stay short
+    private static int slotCount(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    private static Object requireValue(Object value) {
+        if (value == null) {
+            throw new NullPointerException("value must not be null");
+        }
+        return value;
+    }
+
+    // rf addresses of one cube share their upper bytes, so spread all bits over the table
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -15,13 +15,12 @@
  */
 package de.spinscale.maxcube.entities;
 
-import java.io.ByteArrayInputStream;
+import de.spinscale.maxcube.data.ByteCursor;
+
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
 
-import static de.spinscale.maxcube.data.Parser.readRfAddress;
-import static java.nio.charset.StandardCharsets.UTF_8;
 
 public final class Room {
 
@@ -41,12 +40,25 @@ public final class Room {
     }
 
     public Device findThermostat() {
-        Optional<Device> thermostatOptional = devices.stream().filter(device -> device.getType().isThermostat()).findFirst();
-        if (!thermostatOptional.isPresent()) {
-            throw new IllegalArgumentException("Room has no thermostat");
+        for (int i = 0; i < devices.size(); i++) {
+            if (devices.get(i).getType().isThermostat()) {
+                return devices.get(i);
+            }
         }
-
-        return thermostatOptional.get();
+        throw new IllegalArgumentException("Room has no thermostat");
+    }
+
+    /**
+     * @return The number of thermostats in this room, wall thermostats included
+     */
+    public int getThermostatCount() {
+        int count = 0;
+        for (int i = 0; i < devices.size(); i++) {
+            if (devices.get(i).getType().isThermostat()) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public List<Device> getDevices() {
@@ -61,21 +73,27 @@ public final class Room {
         return name;
     }
 
+    /**
+     * @return The rf address of the room, which is the address of its main thermostat
+     */
+    public int getRfaddress() {
+        return rfaddress;
+    }
+
     @Override
     public String toString() {
         return String.format("Room: id[%s] name[%s] devices %s", id, name, devices);
     }
 
-    public static Room read(ByteArrayInputStream bis) {
-        int roomId = bis.read();
-        int nameLength = bis.read();
-        byte[] roomName = new byte[nameLength];
-        bis.read(roomName, 0, nameLength);
+    public static Room read(ByteCursor cursor) {
+        int roomId = cursor.read();
+        int nameLength = cursor.read();
+        String roomName = cursor.readString(nameLength);
 
         // next three bytes are the rf address
-        int rfaddress = readRfAddress(bis);
+        int rfaddress = cursor.readRfAddress();
 
-        return new Room(roomId, new String(roomName, UTF_8), rfaddress);
+        return new Room(roomId, roomName, rfaddress);
     }
 
     public void setCurrentTemperature(double currentTemperature) {
@@ -86,6 +104,9 @@ public final class Room {
         return currentTemperature;
     }
 
+    /**
+     * @return true if any window contact of the room reported an open window
+     */
     public boolean isWindowOpen() {
         return windowOpen;
     }
@@ -106,10 +127,30 @@ public final class Room {
         this.valvePositionInPercent = valvePositionInPercent;
     }
 
+    /**
+     * @return The position of the most open valve of the room
+     */
     public int getValvePositionInPercent() {
         return valvePositionInPercent;
     }
 
+    /**
+     * @return The temperature the weekly program of the first configured thermostat sets at the given time, NaN if no
+     *         thermostat of this room has a weekly program
+     */
+    public double getProgrammedTemperature(LocalDateTime time) {
+        for (int i = 0; i < devices.size(); i++) {
+            Configuration configuration = devices.get(i).getConfiguration();
+            if (configuration instanceof Configuration.ValveConfiguration) {
+                WeeklyProgram weeklyProgram = ((Configuration.ValveConfiguration) configuration).getWeeklyProgram();
+                if (weeklyProgram != null) {
+                    return weeklyProgram.getTemperature(time);
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
     public boolean isLowBattery() {
         return devices.stream().anyMatch(Device::isLowBattery);
     }
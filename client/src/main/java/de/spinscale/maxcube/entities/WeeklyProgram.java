@@ -0,0 +1,158 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import de.spinscale.maxcube.data.ByteCursor;
+
+import java.time.DayOfWeek;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Locale;
+
+/**
+ * The weekly program of a thermostat, up to 13 switch points per day.
+ *
+ * Every switch point is kept as sent by the cube, packed into a short: the upper seven bits are the temperature in
+ * half degrees, the lower nine bits the time until which the temperature applies, in steps of five minutes. The last
+ * switch point of a day lasts until 24:00. Looking up a temperature is a binary search over the switch points of
+ * the day, without creating any objects
+ */
+public final class WeeklyProgram {
+
+    public static final int LENGTH = 7 * 13 * 2;
+
+    private static final int MAX_SWITCH_POINTS = 13;
+    // 24:00 in steps of five minutes
+    private static final int END_OF_DAY = 24 * 60 / 5;
+
+    // the switch points of all days, starting with saturday like the cube does
+    private final short[] switchPoints;
+    // the first switch point of every day, plus the end of the last day
+    private final int[] dayStart;
+
+    private WeeklyProgram(short[] switchPoints, int[] dayStart) {
+        this.switchPoints = switchPoints;
+        this.dayStart = dayStart;
+    }
+
+    /**
+     * Reads the program of all seven days. Switch points after the one lasting until the end of the day are skipped
+     */
+    public static WeeklyProgram readFrom(ByteCursor cursor) {
+        short[] switchPoints = new short[7 * MAX_SWITCH_POINTS];
+        int[] dayStart = new int[8];
+        int count = 0;
+        for (int day = 0; day < 7; day++) {
+            dayStart[day] = count;
+            boolean endOfDay = false;
+            for (int i = 0; i < MAX_SWITCH_POINTS && cursor.available() >= 2; i++) {
+                int value = cursor.read() << 8 | cursor.read();
+                if (!endOfDay) {
+                    switchPoints[count++] = (short) value;
+                    endOfDay = (value & 0x1ff) >= END_OF_DAY;
+                }
+            }
+        }
+        dayStart[7] = count;
+
+        short[] packed = new short[count];
+        System.arraycopy(switchPoints, 0, packed, 0, count);
+        return new WeeklyProgram(packed, dayStart);
+    }
+
+    /**
+     * @return The programmed temperature at the given time, NaN if the program has no switch points for that day
+     */
+    public double getTemperature(LocalDateTime time) {
+        return getTemperature(time.getDayOfWeek(), time.getHour() * 60 + time.getMinute());
+    }
+
+    /**
+     * @return The programmed temperature at the given time, NaN if the program has no switch points for that day
+     */
+    public double getTemperature(DayOfWeek day, LocalTime time) {
+        return getTemperature(day, time.getHour() * 60 + time.getMinute());
+    }
+
+    private double getTemperature(DayOfWeek day, int minuteOfDay) {
+        int from = dayStart[index(day)];
+        int to = dayStart[index(day) + 1];
+        if (from == to) {
+            return Double.NaN;
+        }
+
+        // find the first switch point lasting beyond the given time
+        int time = minuteOfDay / 5;
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if ((switchPoints[middle] & 0x1ff) > time) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return temperature(switchPoints[low]);
+    }
+
+    public int getSwitchPointCount(DayOfWeek day) {
+        return dayStart[index(day) + 1] - dayStart[index(day)];
+    }
+
+    public double getSwitchPointTemperature(DayOfWeek day, int switchPoint) {
+        return temperature(switchPoints[position(day, switchPoint)]);
+    }
+
+    /**
+     * @return The time until the temperature of the switch point applies, midnight for the last one of the day
+     */
+    public LocalTime getSwitchPointUntil(DayOfWeek day, int switchPoint) {
+        int until = (switchPoints[position(day, switchPoint)] & 0x1ff) * 5;
+        return until >= 24 * 60 ? LocalTime.MIDNIGHT : LocalTime.of(until / 60, until % 60);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (DayOfWeek day : DayOfWeek.values()) {
+            builder.append(day).append(':');
+            for (int i = 0; i < getSwitchPointCount(day); i++) {
+                builder.append(String.format(Locale.ROOT, " %s until %s", getSwitchPointTemperature(day, i), getSwitchPointUntil(day, i)));
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private int position(DayOfWeek day, int switchPoint) {
+        if (switchPoint < 0 || switchPoint >= getSwitchPointCount(day)) {
+            String message = String.format(Locale.ROOT, "Switch point [%s] does not exist on [%s], which has [%s]", switchPoint, day,
+                    getSwitchPointCount(day));
+            throw new IllegalArgumentException(message);
+        }
+        return dayStart[index(day)] + switchPoint;
+    }
+
+    // the cube starts its week on saturday
+    private static int index(DayOfWeek day) {
+        return (day.getValue() + 1) % 7;
+    }
+
+    private static double temperature(short switchPoint) {
+        return ((switchPoint >> 9) & 0x7f) / 2.0;
+    }
+}
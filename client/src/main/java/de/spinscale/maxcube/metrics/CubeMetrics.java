@@ -0,0 +1,62 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.metrics;
+
+/**
+ * Receives measurements from the hot paths of a client, so they can be exported to any metrics system.
+ * Cubes are identified by a name like {@code host:port}. Implementations are called from reader and worker
+ * threads of many clients at the same time, so they must be thread safe and should not block
+ */
+public interface CubeMetrics {
+
+    /**
+     * Discards all measurements
+     */
+    CubeMetrics NOOP = new CubeMetrics() {
+    };
+
+    /**
+     * A line was read from the cube
+     * @param type  The first character of the line, like {@code L} for the device list
+     * @param bytes The number of bytes of the line without its terminator, before decoding
+     */
+    default void messageReceived(String cube, char type, int bytes) {
+    }
+
+    /**
+     * A line has been parsed and applied to the cube
+     */
+    default void messageParsed(String cube, char type, long nanos) {
+    }
+
+    /**
+     * The connection to the cube has been established
+     */
+    default void connected(String cube, long nanos) {
+    }
+
+    /**
+     * The cube sent all rooms, devices and their state after connecting, measured from the start of the connect
+     */
+    default void snapshotReceived(String cube, long nanos) {
+    }
+
+    /**
+     * The cube replied to a command, measured from sending the command
+     */
+    default void commandCompleted(String cube, long nanos) {
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The counters and latencies of a single cube, as collected by {@link InMemoryCubeMetrics}
+ */
+public final class CubeMetricsSnapshot {
+
+    // the message types sent by a cube, everything else is counted as the last type
+    static final String TYPES = "HMCLS?";
+
+    private final long[] messageCounts;
+    private final long bytesReceived;
+    private final LatencyHistogram.Snapshot[] parseLatencies;
+    private final LatencyHistogram.Snapshot connectLatency;
+    private final LatencyHistogram.Snapshot snapshotLatency;
+    private final LatencyHistogram.Snapshot commandLatency;
+
+    CubeMetricsSnapshot(long[] messageCounts, long bytesReceived, LatencyHistogram.Snapshot[] parseLatencies,
+                        LatencyHistogram.Snapshot connectLatency, LatencyHistogram.Snapshot snapshotLatency,
+                        LatencyHistogram.Snapshot commandLatency) {
+        this.messageCounts = messageCounts;
+        this.bytesReceived = bytesReceived;
+        this.parseLatencies = parseLatencies;
+        this.connectLatency = connectLatency;
+        this.snapshotLatency = snapshotLatency;
+        this.commandLatency = commandLatency;
+    }
+
+    /**
+     * @param type  The prefix of the message without colon, like {@code L}
+     */
+    public long getMessageCount(char type) {
+        return messageCounts[typeIndex(type)];
+    }
+
+    /**
+     * @return The number of messages by their prefix, like {@code L:}, unknown prefixes are counted as {@code ?:}
+     */
+    public Map<String, Long> getMessageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < TYPES.length(); i++) {
+            counts.put(TYPES.charAt(i) + ":", messageCounts[i]);
+        }
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return The number of bytes of all lines read from the cube, without their terminators
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public LatencyHistogram.Snapshot getParseLatency(char type) {
+        return parseLatencies[typeIndex(type)];
+    }
+
+    public LatencyHistogram.Snapshot getConnectLatency() {
+        return connectLatency;
+    }
+
+    /**
+     * @return The time from starting to connect until all rooms, devices and their state have been read
+     */
+    public LatencyHistogram.Snapshot getSnapshotLatency() {
+        return snapshotLatency;
+    }
+
+    public LatencyHistogram.Snapshot getCommandLatency() {
+        return commandLatency;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "messages %s bytes [%s]%n", getMessageCounts(), bytesReceived));
+        builder.append(String.format(Locale.ROOT, "connect %s%n", connectLatency));
+        builder.append(String.format(Locale.ROOT, "snapshot %s%n", snapshotLatency));
+        builder.append(String.format(Locale.ROOT, "command %s%n", commandLatency));
+        for (int i = 0; i < TYPES.length(); i++) {
+            if (parseLatencies[i].getCount() > 0) {
+                builder.append(String.format(Locale.ROOT, "parse %s: %s%n", TYPES.charAt(i), parseLatencies[i]));
+            }
+        }
+        return builder.toString();
+    }
+
+    static int typeIndex(char type) {
+        int index = TYPES.indexOf(type);
+        return index >= 0 ? index : TYPES.length() - 1;
+    }
+}
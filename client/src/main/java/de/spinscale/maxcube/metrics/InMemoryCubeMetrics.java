@@ -0,0 +1,107 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps counters and latency histograms per cube in memory, for the lifetime of the instance.
+ * One instance can be shared by all clients, {@link #snapshot()} returns the current values for scraping
+ */
+public class InMemoryCubeMetrics implements CubeMetrics {
+
+    private final ConcurrentMap<String, CubeStats> cubes = new ConcurrentHashMap<>();
+
+    @Override
+    public void messageReceived(String cube, char type, int bytes) {
+        CubeStats stats = stats(cube);
+        stats.messages[CubeMetricsSnapshot.typeIndex(type)].increment();
+        stats.bytes.add(bytes);
+    }
+
+    @Override
+    public void messageParsed(String cube, char type, long nanos) {
+        stats(cube).parse[CubeMetricsSnapshot.typeIndex(type)].record(nanos);
+    }
+
+    @Override
+    public void connected(String cube, long nanos) {
+        stats(cube).connect.record(nanos);
+    }
+
+    @Override
+    public void snapshotReceived(String cube, long nanos) {
+        stats(cube).snapshot.record(nanos);
+    }
+
+    @Override
+    public void commandCompleted(String cube, long nanos) {
+        stats(cube).command.record(nanos);
+    }
+
+    /**
+     * @return The current values of all cubes, that reported anything so far
+     */
+    public Map<String, CubeMetricsSnapshot> snapshot() {
+        Map<String, CubeMetricsSnapshot> snapshots = new LinkedHashMap<>();
+        cubes.forEach((cube, stats) -> snapshots.put(cube, stats.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    public Optional<CubeMetricsSnapshot> snapshot(String cube) {
+        return Optional.ofNullable(cubes.get(cube)).map(CubeStats::snapshot);
+    }
+
+    private CubeStats stats(String cube) {
+        // get first, computeIfAbsent locks the bin even if the key exists
+        CubeStats stats = cubes.get(cube);
+        return stats != null ? stats : cubes.computeIfAbsent(cube, name -> new CubeStats());
+    }
+
+    private static final class CubeStats {
+
+        private final LongAdder[] messages = new LongAdder[CubeMetricsSnapshot.TYPES.length()];
+        private final LatencyHistogram[] parse = new LatencyHistogram[CubeMetricsSnapshot.TYPES.length()];
+        private final LongAdder bytes = new LongAdder();
+        private final LatencyHistogram connect = new LatencyHistogram();
+        private final LatencyHistogram snapshot = new LatencyHistogram();
+        private final LatencyHistogram command = new LatencyHistogram();
+
+        CubeStats() {
+            for (int i = 0; i < messages.length; i++) {
+                messages[i] = new LongAdder();
+                parse[i] = new LatencyHistogram();
+            }
+        }
+
+        CubeMetricsSnapshot snapshot() {
+            long[] messageCounts = new long[messages.length];
+            LatencyHistogram.Snapshot[] parseLatencies = new LatencyHistogram.Snapshot[parse.length];
+            for (int i = 0; i < messages.length; i++) {
+                messageCounts[i] = messages[i].sum();
+                parseLatencies[i] = parse[i].snapshot();
+            }
+            return new CubeMetricsSnapshot(messageCounts, bytes.sum(), parseLatencies, connect.snapshot(), snapshot.snapshot(),
+                    command.snapshot());
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+// executors return from termination before their threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class CommandPipelineTest extends CubeTestCase {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> written = new ArrayList<>();
+    private final List<TimeoutException> timeouts = new CopyOnWriteArrayList<>();
+
+    @After
+    public void shutdownScheduler() {
+        terminate(scheduler, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testRepliesAreMatchedInOrder() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        CompletableFuture<String> first = pipeline.send(frame("s:first"), "S:", Duration.ofSeconds(10));
+        CompletableFuture<String> second = pipeline.send(frame("s:second"), "S:", Duration.ofSeconds(10));
+        assertThat(written, contains("s:first", "s:second"));
+        assertThat(pipeline.size(), is(2));
+
+        assertThat(pipeline.onReply("S:00,0,31"), is(true));
+        assertThat(pipeline.onReply("S:01,1,30"), is(true));
+        assertThat(first.get(), is("S:00,0,31"));
+        assertThat(second.get(), is("S:01,1,30"));
+
+        assertThat(pipeline.onReply("S:02,0,29"), is(false));
+    }
+
+    @Test
+    public void testFrameBufferIsReusable() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        buffer.put("s:first\r\n".getBytes(US_ASCII)).flip();
+        CompletableFuture<String> first = pipeline.send(buffer, "S:", Duration.ofSeconds(10));
+        buffer.clear();
+        buffer.put("s:second\r\n".getBytes(US_ASCII)).flip();
+        CompletableFuture<String> second = pipeline.send(buffer, "S:", Duration.ofSeconds(10));
+        assertThat(written, contains("s:first", "s:second"));
+
+        assertThat(pipeline.onReply("S:00,0,31"), is(true));
+        assertThat(pipeline.onReply("S:01,1,30"), is(true));
+        assertThat(first.get(), is("S:00,0,31"));
+        assertThat(second.get(), is("S:01,1,30"));
+    }
+
+    @Test
+    public void testRepliesAreMatchedByType() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        CompletableFuture<String> refresh = pipeline.send(frame("l:"), "L:", Duration.ofSeconds(10));
+        CompletableFuture<String> boost = pipeline.send(frame("s:boost"), "S:", Duration.ofSeconds(10));
+
+        assertThat(pipeline.onReply("S:00,0,31"), is(true));
+        assertThat(boost.get(), is("S:00,0,31"));
+        assertThat(refresh.isDone(), is(false));
+
+        assertThat(pipeline.onReply("L:Cw5cuwkSGBkqANcA"), is(true));
+        assertThat(refresh.get(), is("L:Cw5cuwkSGBkqANcA"));
+    }
+
+    @Test
+    public void testTakenCommandIsLeftToTheCaller() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        CompletableFuture<String> refresh = pipeline.send(frame("l:"), "L:", Duration.ofSeconds(10));
+        CompletableFuture<String> boost = pipeline.send(frame("s:boost"), "S:", Duration.ofSeconds(10));
+
+        assertThat(pipeline.take("L:"), is(sameInstance(refresh)));
+        assertThat(pipeline.take("L:"), is(nullValue()));
+        assertThat(pipeline.size(), is(1));
+        assertThat(refresh.isDone(), is(false));
+
+        pipeline.failAll(new EOFException("Stream reached end"));
+        assertThat(boost.isCompletedExceptionally(), is(true));
+        assertThat(refresh.isDone(), is(false));
+    }
+
+    @Test
+    public void testTimeoutFailsAllPendingCommands() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        CompletableFuture<String> first = pipeline.send(frame("s:first"), "S:", Duration.ofSeconds(10));
+        CompletableFuture<String> refresh = pipeline.send(frame("l:"), "L:", Duration.ofSeconds(10));
+        // sent last, so all other commands are pending when it times out
+        CompletableFuture<String> second = pipeline.send(frame("s:second"), "S:", Duration.ofMillis(1));
+        ExecutionException e = expectThrows(ExecutionException.class, second::get);
+        assertThat(e.getCause(), instanceOf(TimeoutException.class));
+
+        // a late reply could belong to any of the commands, so none of them can be completed anymore
+        e = expectThrows(ExecutionException.class, first::get);
+        assertThat(e.getCause(), sameInstance(timeouts.get(0)));
+        e = expectThrows(ExecutionException.class, refresh::get);
+        assertThat(e.getCause(), sameInstance(timeouts.get(0)));
+        assertThat(timeouts, hasSize(1));
+        assertThat(pipeline.size(), is(0));
+        assertThat(pipeline.onReply("S:00,0,31"), is(false));
+    }
+
+    @Test
+    public void testBlockedWriteDoesNotBlockReplies() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CommandPipeline pipeline = new CommandPipeline(frame -> {
+            if (decode(frame).equals("s:second")) {
+                writing.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }, scheduler, timeouts::add);
+        CompletableFuture<String> first = pipeline.send(frame("s:first"), "S:", Duration.ofSeconds(10));
+        CompletableFuture<CompletableFuture<String>> second = CompletableFuture.supplyAsync(
+                () -> pipeline.send(frame("s:second"), "S:", Duration.ofSeconds(10)));
+        assertThat(writing.await(10, TimeUnit.SECONDS), is(true));
+
+        // the sender of the second command is stuck in write(), while the reply of the first one arrives
+        assertThat(pipeline.onReply("S:00,0,31"), is(true));
+        assertThat(first.get(), is("S:00,0,31"));
+
+        release.countDown();
+        assertThat(pipeline.onReply("S:01,0,30"), is(true));
+        assertThat(second.get().get(), is("S:01,0,30"));
+    }
+
+    @Test
+    public void testFailedWriteIsNotQueued() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(frame -> { throw new IOException("broken pipe"); }, scheduler, timeouts::add);
+        CompletableFuture<String> future = pipeline.send(frame("s:first"), "S:", Duration.ofSeconds(10));
+        ExecutionException e = expectThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(IOException.class));
+        assertThat(pipeline.size(), is(0));
+    }
+
+    @Test
+    public void testFailAll() throws Exception {
+        CommandPipeline pipeline = new CommandPipeline(this::write, scheduler, timeouts::add);
+        CompletableFuture<String> future = pipeline.send(frame("s:first"), "S:", Duration.ofSeconds(10));
+        pipeline.failAll(new EOFException("Stream reached end"));
+        ExecutionException e = expectThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(EOFException.class));
+        assertThat(pipeline.size(), is(0));
+    }
+
+    private static ByteBuffer frame(String line) {
+        return ByteBuffer.wrap((line + "\r\n").getBytes(US_ASCII));
+    }
+
+    // consumes the frame like writing it to a socket
+    private void write(ByteBuffer frame) {
+        written.add(decode(frame));
+    }
+
+    private static String decode(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.remaining()];
+        frame.get(bytes);
+        return new String(bytes, 0, bytes.length - 2, US_ASCII);
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+// executors return from termination before their threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class CommandSchedulerTest extends CubeTestCase {
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final List<CompletableFuture<String>> sent = new ArrayList<>();
+
+    @After
+    public void shutdownExecutor() {
+        terminate(executor, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testCommandsWithinBudgetAreSentImmediately() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(0, 50);
+
+        for (int i = 0; i < 3; i++) {
+            scheduler.submit(this::send);
+        }
+        assertThat(sent, hasSize(3));
+        assertThat(scheduler.getQueueDepth(), is(0));
+        assertThat(scheduler.getPredictedWait(), is(Duration.ZERO));
+        assertThat(scheduler.getProjectedDutyCycle(), is(3));
+    }
+
+    @Test
+    public void testCommandsAreQueuedOnceBudgetIsExhausted() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(89, 50);
+
+        CompletableFuture<Parser.CommandResponse> first = scheduler.submit(this::send);
+        CompletableFuture<Parser.CommandResponse> second = scheduler.submit(this::send);
+        assertThat(sent, hasSize(1));
+        assertThat(scheduler.getQueueDepth(), is(1));
+        assertThat(scheduler.getPredictedWait(), is(Duration.ofSeconds(36)));
+
+        sent.get(0).complete("S:5A,0,31");
+        assertThat(first.get().getDutyCycle(), is(90));
+        assertThat(sent, hasSize(1));
+
+        // the duty cycle recovers by one percent every 36 seconds
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(18));
+        assertThat(scheduler.getPredictedWait(), is(Duration.ofSeconds(18)));
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(18));
+        assertThat(scheduler.getPredictedWait(), is(Duration.ZERO));
+
+        scheduler.setDutyCycleBudget(90);
+        assertThat(sent, hasSize(2));
+        assertThat(scheduler.getQueueDepth(), is(0));
+        assertThat(second.isDone(), is(false));
+    }
+
+    @Test
+    public void testQueuedCommandsAreSentAfterRecovery() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90);
+        scheduler.update(90, 50);
+
+        CompletableFuture<Parser.CommandResponse> future = scheduler.submit(this::send);
+        assertThat(scheduler.getQueueDepth(), is(1));
+        // raising the budget sends the command right away, the pending retry does nothing
+        scheduler.setDutyCycleBudget(100);
+        assertThat(scheduler.getQueueDepth(), is(0));
+        sent.get(0).complete("S:5B,0,31");
+        assertThat(future.get().isAccepted(), is(true));
+    }
+
+    @Test
+    public void testFreeMemorySlotsLimitCommandsInFlight() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        // without any free slot a single command is still sent to find out when slots are available again
+        scheduler.update(0, 0);
+
+        scheduler.submit(this::send);
+        scheduler.submit(this::send);
+        scheduler.submit(this::send);
+        assertThat(sent, hasSize(1));
+        assertThat(scheduler.getQueueDepth(), is(2));
+
+        sent.get(0).complete("S:01,0,02");
+        assertThat(sent, hasSize(3));
+        assertThat(scheduler.getQueueDepth(), is(0));
+    }
+
+    @Test
+    public void testFailedCommandIsNotCountedAsInFlight() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(0, 1);
+
+        CompletableFuture<Parser.CommandResponse> first = scheduler.submit(() -> {
+            throw new IllegalStateException("Client is not connected");
+        });
+        ExecutionException e = expectThrows(ExecutionException.class, first::get);
+        assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+
+        CompletableFuture<Parser.CommandResponse> second = scheduler.submit(this::send);
+        sent.get(0).completeExceptionally(new IOException("broken pipe"));
+        e = expectThrows(ExecutionException.class, second::get);
+        assertThat(e.getCause(), instanceOf(IOException.class));
+
+        scheduler.submit(this::send);
+        assertThat(sent, hasSize(2));
+    }
+
+    @Test
+    public void testQueuedCommandsAreCoalescedPerRoom() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(90, 50);
+        List<String> frames = new ArrayList<>();
+
+        CompletableFuture<Parser.CommandResponse> boost = scheduler.submit(1, "s:boost", () -> send(frames, "s:boost"));
+        CompletableFuture<Parser.CommandResponse> other = scheduler.submit(2, "s:boost", () -> send(frames, "s:boost"));
+        // an identical command is not queued twice, but every caller gets its own future
+        CompletableFuture<Parser.CommandResponse> sameBoost = scheduler.submit(1, "s:boost", () -> send(frames, "s:boost"));
+        assertThat(sameBoost, is(not(sameInstance(boost))));
+        assertThat(scheduler.getQueueDepth(), is(2));
+
+        // a newer command replaces the queued one of the room
+        CompletableFuture<Parser.CommandResponse> holiday = scheduler.submit(1, "s:holiday", () -> send(frames, "s:holiday"));
+        assertThat(scheduler.getQueueDepth(), is(2));
+        expectThrows(CancellationException.class, boost::get);
+        ExecutionException e = expectThrows(ExecutionException.class, sameBoost::get);
+        assertThat(e.getCause(), instanceOf(CancellationException.class));
+
+        // the replacement keeps the position in the queue
+        scheduler.setDutyCycleBudget(100);
+        assertThat(frames, contains("s:holiday", "s:boost"));
+        sent.get(0).complete("S:5B,0,31");
+        sent.get(1).complete("S:5C,1,31");
+        assertThat(holiday.get().isAccepted(), is(true));
+        assertThat(other.get().isAccepted(), is(false));
+    }
+
+    @Test
+    public void testSentCommandsAreNotCoalesced() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(0, 50);
+
+        CompletableFuture<Parser.CommandResponse> first = scheduler.submit(1, "s:boost", this::send);
+        CompletableFuture<Parser.CommandResponse> second = scheduler.submit(1, "s:boost", this::send);
+        assertThat(sent, hasSize(2));
+        sent.get(0).complete("S:01,0,31");
+        sent.get(1).complete("S:02,0,31");
+        assertThat(first.get().getDutyCycle(), is(1));
+        assertThat(second.get().getDutyCycle(), is(2));
+        expectThrows(IllegalArgumentException.class, () -> scheduler.submit(-1, "s:boost", this::send));
+    }
+
+    @Test
+    public void testCommandsOverBudgetFailWithoutWaiting() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(randomIntBetween(90, 100), 50);
+        scheduler.setMaxQueueWait(Duration.ofSeconds(5));
+
+        CompletableFuture<Parser.CommandResponse> future = randomBoolean() ? scheduler.submit(this::send)
+                : scheduler.submit(1, "s:boost", this::send);
+        ExecutionException e = expectThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        assertThat(sent, hasSize(0));
+        assertThat(scheduler.getQueueDepth(), is(0));
+
+        // without a limit the command waits as long as it takes
+        scheduler.setMaxQueueWait(null);
+        scheduler.submit(this::send);
+        assertThat(scheduler.getQueueDepth(), is(1));
+    }
+
+    @Test
+    public void testQueuedCommandsExpire() throws Exception {
+        CommandScheduler scheduler = new CommandScheduler(executor, 90, nanoTime::get);
+        scheduler.update(89, 50);
+        scheduler.setMaxQueueWait(Duration.ofSeconds(40));
+
+        CompletableFuture<Parser.CommandResponse> first = scheduler.submit(this::send);
+        // expected to be sent after 36 seconds, but the reply reports a higher duty cycle
+        CompletableFuture<Parser.CommandResponse> second = scheduler.submit(1, "s:boost", this::send);
+        assertThat(scheduler.getQueueDepth(), is(1));
+        sent.get(0).complete("S:5F,0,31");
+        assertThat(first.get().getDutyCycle(), is(95));
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(39));
+        scheduler.setDutyCycleBudget(90);
+        assertThat(second.isDone(), is(false));
+
+        nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        scheduler.setDutyCycleBudget(90);
+        ExecutionException e = expectThrows(ExecutionException.class, second::get);
+        assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        assertThat(sent, hasSize(1));
+        assertThat(scheduler.getQueueDepth(), is(0));
+
+        // the room is not blocked by the expired command
+        scheduler.setDutyCycleBudget(100);
+        scheduler.submit(1, "s:boost", this::send);
+        assertThat(sent, hasSize(2));
+    }
+
+    @Test
+    public void testBudgetValidation() throws Exception {
+        expectThrows(IllegalArgumentException.class, () -> new CommandScheduler(executor, 0));
+        expectThrows(IllegalArgumentException.class, () -> new CommandScheduler(executor, 101));
+        CommandScheduler scheduler = new CommandScheduler(executor, 50);
+        expectThrows(IllegalArgumentException.class, () -> scheduler.setDutyCycleBudget(-1));
+        assertThat(scheduler.getDutyCycleBudget(), is(50));
+    }
+
+    private CompletableFuture<String> send(List<String> frames, String frame) {
+        frames.add(frame);
+        return send();
+    }
+
+    private CompletableFuture<String> send() {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        sent.add(reply);
+        return reply;
+    }
+}
@@ -15,45 +15,42 @@
  */
 package de.spinscale.maxcube.client;
 
-import com.carrotsearch.randomizedtesting.annotations.Repeat;
-import de.spinscale.maxcube.data.ParserTest;
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
 import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Room;
 import de.spinscale.maxcube.test.CubeTestCase;
-import org.apache.mina.core.service.IoHandlerAdapter;
-import org.apache.mina.core.session.IoSession;
-import org.apache.mina.filter.codec.ProtocolCodecFilter;
-import org.apache.mina.filter.codec.textline.LineDelimiter;
-import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
-import org.apache.mina.filter.logging.LoggingFilter;
-import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 
-import static java.lang.Integer.toHexString;
-import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
 
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
 @Ignore
 public abstract class CubeClientTest extends CubeTestCase {
 
-    private CubeServer server;
-    private CubeServerHandler handler;
+    CubeServer server;
+    CubeServer.CubeServerHandler handler;
 
     @Before
     public void startServer() throws IOException {
-        handler = new CubeServerHandler();
         server = new CubeServer();
+        handler = server.getHandler();
         server.start();
     }
 
@@ -72,6 +69,22 @@ public abstract class CubeClientTest extends CubeTestCase {
         }
     }
 
+    @Test
+    public void testRefresh() throws Exception {
+        try (CubeClient client = getCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            Room room = cube.findRoom("Wohnzimmer");
+            room.setCurrentTemperature(0);
+            room.setValvePositionInPercent(100);
+
+            Cube refreshedCube = client.refresh();
+            assertThat(refreshedCube, is(sameInstance(cube)));
+            assertThat(refreshedCube.getRooms(), hasSize(5));
+            assertThat(room.getCurrentTemperature(), is(23.9));
+            assertThat(room.getValvePositionInPercent(), is(9));
+        }
+    }
+
     @Test
     public void testBoost() throws Exception {
         boolean successfulResponse = randomBoolean();
@@ -83,6 +96,8 @@ public abstract class CubeClientTest extends CubeTestCase {
             Cube cube = client.connect();
             boolean boostConfigured = client.boost(cube.getRooms().get(0));
             assertThat(boostConfigured, is(successfulResponse));
+            assertThat(cube.getDutyCycle(), is(dutyCycle));
+            assertThat(cube.getFreeMemorySlots(), is(freeMemorySlots));
         }
     }
 
@@ -101,75 +116,39 @@ public abstract class CubeClientTest extends CubeTestCase {
         }
     }
 
-    private class CubeServer implements Closeable {
-
-        private final NioSocketAcceptor acceptor;
-
-        public CubeServer() {
-            acceptor = new NioSocketAcceptor(1);
-        }
-
-        public int getPort() {
-            return acceptor.getLocalAddress().getPort();
-        }
-
-        public void start() throws IOException {
-            // enable for debug
-            acceptor.getFilterChain().addLast("logger", new LoggingFilter());
-            TextLineCodecFactory codecFactory = new TextLineCodecFactory(UTF_8, LineDelimiter.CRLF, LineDelimiter.CRLF);
-            acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory));
-            acceptor.setHandler(handler);
-            acceptor.bind(new InetSocketAddress(0) );
-            acceptor.setCloseOnDeactivation(true);
-            logger.info("Cube server bound to [{}]", acceptor.getLocalAddress());
-        }
-
-        @Override
-        public void close() throws IOException {
-            acceptor.dispose(true);
-        }
-    }
-
-    private static class CubeServerHandler extends IoHandlerAdapter {
-
-        private static final Logger LOGGER = LoggerFactory.getLogger(IoHandlerAdapter.class);
-        private volatile int boostDutyCycle;
-        private volatile boolean boostSuccessful;
-        private volatile int boostFreeMemorySlots;
-
-        @Override
-        public void sessionOpened(IoSession session) throws Exception {
-            // dump the standard infos...
-            session.write(ParserTest.input);
-        }
-
-        @Override
-        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
-            session.closeNow();
-            LOGGER.error("Caught exception", cause);
-        }
-
-        @Override
-        public void messageReceived(IoSession session, Object message) throws Exception {
-            String str = message.toString();
-            LOGGER.info("Recevied message: {}", str);
+    @Test
+    public void testApply() throws Exception {
+        boolean successfulResponse = randomBoolean();
+        int dutyCycle = randomIntBetween(1, 100);
+        handler.configureBoostResponse(dutyCycle, successfulResponse, randomIntBetween(1, 255));
 
-            if (str.trim().startsWith("s:")) {
-                String data = "S:" + toHexString(boostDutyCycle) + "," + (boostSuccessful ? "0" : "1")  + "," + toHexString(boostFreeMemorySlots);
-                LOGGER.info("Sending reply: {}", data);
-                session.write(data);
+        try (CubeClient client = getCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            List<RoomTarget> targets = new ArrayList<>();
+            for (Room room : cube.getRooms()) {
+                targets.add(randomBoolean() ? RoomTarget.boost(room) : RoomTarget.holiday(room, LocalDateTime.now().plusDays(1), 18));
             }
-
-            if( str.trim().equalsIgnoreCase("q:") ) {
-                session.closeOnFlush();
-                return;
+            // a room without thermostat fails, but does not stop the following rooms
+            Room withoutThermostat = new Room(99, "Keller", 1);
+            targets.add(randomIntBetween(0, targets.size()), RoomTarget.boost(withoutThermostat));
+
+            List<RoomResult> results = client.apply(targets);
+            assertThat(results, hasSize(targets.size()));
+            for (int i = 0; i < targets.size(); i++) {
+                RoomResult result = results.get(i);
+                assertThat(result.getTarget(), is(sameInstance(targets.get(i))));
+                if (result.getTarget().getRoom().getThermostatCount() == 0) {
+                    assertThat(result.getStatus(), is(RoomResult.Status.FAILED));
+                    assertThat(result.getFailure().getMessage(), containsString("Room has no thermostat"));
+                } else if (result.getStatus() == RoomResult.Status.FAILED) {
+                    // once a reply exhausts the duty cycle budget, the following commands fail instead of waiting
+                    assertThat(result.toString(), dutyCycle + targets.size(), greaterThan(CommandScheduler.DEFAULT_DUTY_CYCLE_BUDGET));
+                    Exception failure = result.getFailure();
+                    assertThat(failure instanceof ExecutionException ? failure.getCause() : failure, instanceOf(TimeoutException.class));
+                } else {
+                    assertThat(result.toString(), result.isAccepted(), is(successfulResponse));
+                }
             }
         }
-
-        public void configureBoostResponse(int dutyCycle, boolean successful, int freeMemorySlots) {
-            this.boostDutyCycle = dutyCycle;
-            this.boostSuccessful = successful;
-            this.boostFreeMemorySlots = freeMemorySlots;
-        }
     }
 }
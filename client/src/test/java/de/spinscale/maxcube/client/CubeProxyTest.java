@@ -0,0 +1,128 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class CubeProxyTest extends CubeTestCase {
+
+    private CubeServer server;
+    private CubeProxy proxy;
+
+    @Before
+    public void startProxy() throws IOException {
+        server = new CubeServer();
+        server.start();
+        proxy = new CubeProxy("localhost", server.getPort());
+        proxy.start(0);
+    }
+
+    @After
+    public void stopProxy() throws IOException {
+        proxy.close();
+        server.close();
+    }
+
+    @Test
+    public void testClientsShareOneConnection() throws Exception {
+        boolean successfulResponse = randomBoolean();
+        server.getHandler().configureBoostResponse(randomIntBetween(1, 100), successfulResponse, randomIntBetween(1, 255));
+
+        List<SocketCubeClient> clients = new ArrayList<>();
+        try {
+            int clientCount = randomIntBetween(2, 5);
+            for (int i = 0; i < clientCount; i++) {
+                SocketCubeClient client = new SocketCubeClient("localhost", proxy.getPort());
+                clients.add(client);
+                assertThat(client.connect().getRooms(), hasSize(5));
+            }
+
+            for (SocketCubeClient client : clients) {
+                Cube cube = client.refresh();
+                assertThat(client.boost(cube.getRooms().get(0)), is(successfulResponse));
+            }
+            assertThat(proxy.getClientCount(), is(clientCount));
+            assertThat(server.getSessionCount(), is(1));
+        } finally {
+            for (SocketCubeClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotIsUpdatedByReplies() throws Exception {
+        int dutyCycle = randomIntBetween(1, 100);
+        int freeMemorySlots = randomIntBetween(1, 255);
+        server.getHandler().configureBoostResponse(dutyCycle, true, freeMemorySlots);
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", proxy.getPort())) {
+            Cube cube = client.connect();
+            assertThat(client.boost(cube.getRooms().get(0)), is(true));
+        }
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", proxy.getPort())) {
+            Cube cube = client.connect();
+            assertThat(cube.getDutyCycle(), is(dutyCycle));
+            assertThat(cube.getFreeMemorySlots(), is(freeMemorySlots));
+        }
+        assertThat(server.getSessionCount(), is(1));
+    }
+
+    @Test
+    public void testReconnectsAfterCubeDisconnects() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", proxy.getPort())) {
+            client.connect();
+            server.disconnectAll();
+            // the proxy drops its clients, when the cube drops the proxy
+            expectThrows(IOException.class, client::refresh);
+        }
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", proxy.getPort())) {
+            assertThat(client.connect().getRooms(), hasSize(5));
+            assertThat(client.refresh().getRooms(), hasSize(5));
+        }
+    }
+
+    @Test
+    public void testUnreachableCubeDisconnectsClients() throws Exception {
+        int port = server.getPort();
+        server.close();
+
+        // the proxy of the test setup connects on start, so it might still have read the cube before it was closed
+        try (CubeProxy unreachable = new CubeProxy("localhost", port)) {
+            unreachable.start(0);
+            try (SocketCubeClient client = new SocketCubeClient("localhost", unreachable.getPort())) {
+                expectThrows(IOException.class, client::connect);
+            }
+        }
+    }
+}
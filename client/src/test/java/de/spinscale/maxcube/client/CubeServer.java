@@ -0,0 +1,160 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.ParserTest;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.codec.textline.LineDelimiter;
+import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
+import org.apache.mina.filter.logging.LoggingFilter;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Integer.toHexString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A fake cube, that sends the sample data from {@link ParserTest} and replies to commands
+ */
+class CubeServer implements Closeable {
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final NioSocketAcceptor acceptor;
+    private final CubeServerHandler handler = new CubeServerHandler();
+
+    public CubeServer() {
+        acceptor = new NioSocketAcceptor(1);
+    }
+
+    public int getPort() {
+        return acceptor.getLocalAddress().getPort();
+    }
+
+    /**
+     * @return The number of currently connected clients
+     */
+    public int getSessionCount() {
+        return acceptor.getManagedSessionCount();
+    }
+
+    /**
+     * Sends a line to all clients without a command asking for it
+     */
+    public void push(String line) {
+        acceptor.getManagedSessions().values().forEach(session -> session.write(line));
+    }
+
+    /**
+     * Drops all connections, like a rebooting cube
+     */
+    public void disconnectAll() {
+        acceptor.getManagedSessions().values().forEach(IoSession::closeNow);
+    }
+
+    public CubeServerHandler getHandler() {
+        return handler;
+    }
+
+    public void start() throws IOException {
+        // enable for debug
+        acceptor.getFilterChain().addLast("logger", new LoggingFilter());
+        TextLineCodecFactory codecFactory = new TextLineCodecFactory(UTF_8, LineDelimiter.CRLF, LineDelimiter.CRLF);
+        acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory));
+        acceptor.setHandler(handler);
+        acceptor.bind(new InetSocketAddress(0) );
+        acceptor.setCloseOnDeactivation(true);
+        logger.info("Cube server bound to [{}]", acceptor.getLocalAddress());
+    }
+
+    @Override
+    public void close() throws IOException {
+        acceptor.dispose(true);
+    }
+
+    static class CubeServerHandler extends IoHandlerAdapter {
+
+        private static final Logger LOGGER = LoggerFactory.getLogger(IoHandlerAdapter.class);
+        private volatile int boostDutyCycle;
+        private volatile boolean boostSuccessful;
+        private volatile int boostFreeMemorySlots;
+        private volatile boolean replyToCommands = true;
+        private final BlockingQueue<String> commands = new LinkedBlockingQueue<>();
+
+        @Override
+        public void sessionOpened(IoSession session) throws Exception {
+            // dump the standard infos...
+            session.write(ParserTest.input);
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            session.closeNow();
+            LOGGER.error("Caught exception", cause);
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            String str = message.toString();
+            LOGGER.info("Recevied message: {}", str);
+
+            if (str.trim().startsWith("s:")) {
+                commands.add(str.trim());
+                if (replyToCommands) {
+                    String data = "S:" + toHexString(boostDutyCycle) + "," + (boostSuccessful ? "0" : "1")  + "," + toHexString(boostFreeMemorySlots);
+                    LOGGER.info("Sending reply: {}", data);
+                    session.write(data);
+                }
+            }
+
+            if (str.trim().equals("l:")) {
+                String[] lines = ParserTest.input.split("\n");
+                session.write(lines[lines.length - 1]);
+            }
+
+            if( str.trim().equalsIgnoreCase("q:") ) {
+                session.closeOnFlush();
+                return;
+            }
+        }
+
+        public void configureBoostResponse(int dutyCycle, boolean successful, int freeMemorySlots) {
+            this.boostDutyCycle = dutyCycle;
+            this.boostSuccessful = successful;
+            this.boostFreeMemorySlots = freeMemorySlots;
+        }
+
+        public void ignoreCommands() {
+            this.replyToCommands = false;
+        }
+
+        /**
+         * @return The next set temperature command received, null if none arrived within the timeout
+         */
+        public String pollCommand(long timeout, TimeUnit unit) throws InterruptedException {
+            return commands.poll(timeout, unit);
+        }
+    }
+}
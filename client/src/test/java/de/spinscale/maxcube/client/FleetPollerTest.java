@@ -0,0 +1,93 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class FleetPollerTest extends CubeTestCase {
+
+    private CubeServer server;
+    // accepts connections, but never sends anything, like a hanging cube
+    private ServerSocket deadCube;
+
+    @Before
+    public void startServers() throws IOException {
+        server = new CubeServer();
+        server.start();
+        deadCube = new ServerSocket(0);
+    }
+
+    @After
+    public void stopServers() throws IOException {
+        server.close();
+        deadCube.close();
+    }
+
+    @Test
+    public void testPollingManyCubes() throws Exception {
+        List<String> hosts = new ArrayList<>();
+        int count = randomIntBetween(1, 30);
+        for (int i = 0; i < count; i++) {
+            hosts.add("cube-" + i);
+        }
+        hosts.add("dead");
+
+        try (FleetPoller poller = new FleetPoller(hosts, Duration.ofMinutes(1), Duration.ofMillis(500), randomIntBetween(1, 8),
+                (host, scheduler) -> new SocketCubeClient("localhost", host.equals("dead") ? deadCube.getLocalPort() : server.getPort(), scheduler))) {
+            long start = System.nanoTime();
+            poller.pollAll().get();
+            // the dead cube is cut off by the deadline, instead of running into the read timeout of three seconds
+            assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), lessThan(2900L));
+
+            assertThat(poller.getCubes().size(), is(count));
+            for (int i = 0; i < count; i++) {
+                assertThat(poller.getCube("cube-" + i).get().getRooms(), hasSize(5));
+                assertThat(poller.getFailure("cube-" + i).isPresent(), is(false));
+            }
+            // all hosts are served by the same cube, so their devices share the same rf addresses
+            Cube cube = poller.getCube("cube-0").get();
+            assertThat(poller.getDeviceRegistry().size(), is(cube.getDevicesByRfAddress().size()));
+            assertThat(poller.getCube("dead").isPresent(), is(false));
+            assertThat(poller.getFailure("dead").get(), instanceOf(TimeoutException.class));
+        }
+    }
+
+    @Test
+    public void testDeadlineMustNotExceedInterval() {
+        expectThrows(IllegalArgumentException.class, () -> new FleetPoller(new ArrayList<>(), Duration.ofSeconds(1), Duration.ofSeconds(2)));
+    }
+}
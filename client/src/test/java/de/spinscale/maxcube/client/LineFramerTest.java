@@ -0,0 +1,126 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.ParserTest;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class LineFramerTest extends CubeTestCase {
+
+    @Test
+    public void testSplitsLinesReadInChunks() throws Exception {
+        List<String> expected = new ArrayList<>(Arrays.asList(ParserTest.input.split("\n")));
+        expected.add("S:00,0,31");
+        expected.add("");
+        expected.add("Küche");
+        StringBuilder data = new StringBuilder();
+        for (String line : expected) {
+            data.append(line).append(randomBoolean() ? "\r\n" : "\n");
+        }
+        // the last line might end without a line terminator
+        if (randomBoolean()) {
+            data.setLength(data.length() - (data.charAt(data.length() - 2) == '\r' ? 2 : 1));
+        }
+
+        LineFramer framer = new LineFramer(randomIntBetween(1024, 4096));
+        ChunkedChannel channel = new ChunkedChannel(data.toString().getBytes(UTF_8), randomIntBetween(1, 700));
+        List<String> lines = new ArrayList<>();
+        String line;
+        while ((line = framer.readLine(channel)) != null) {
+            lines.add(line);
+        }
+        assertThat(lines, is(expected));
+    }
+
+    @Test
+    public void testNonBlockingReads() throws Exception {
+        LineFramer framer = new LineFramer();
+        ChunkedChannel channel = new ChunkedChannel("L:AAA\r\nS:00,0,31\r\n".getBytes(UTF_8), 4);
+        channel.nothingAvailable = true;
+        assertThat(framer.fill(channel), is(0));
+        assertThat(framer.nextFrame(), is(nullValue()));
+
+        channel.nothingAvailable = false;
+        assertThat(framer.fill(channel), is(4));
+        assertThat(framer.nextFrame(), is(nullValue()));
+        assertThat(framer.fill(channel), is(4));
+        ByteBuffer frame = framer.nextFrame();
+        assertThat(framer.toString(frame), is("L:AAA"));
+        assertThat(framer.nextFrame(), is(nullValue()));
+    }
+
+    @Test
+    public void testLinesMustNotExceedMaximumFrameSize() throws Exception {
+        int maxFrameSize = randomIntBetween(10, 100);
+        byte[] data = new byte[maxFrameSize + 1];
+        Arrays.fill(data, (byte) 'A');
+        data[data.length - 1] = '\n';
+        LineFramer framer = new LineFramer(maxFrameSize);
+        IOException e = expectThrows(IOException.class, () -> framer.readFrame(new ChunkedChannel(data, randomIntBetween(1, 20))));
+        assertThat(e.getMessage(), containsString("maximum frame size"));
+    }
+
+    // returns at most chunk size bytes per read, like a socket receiving the data in several packets
+    private static class ChunkedChannel implements ReadableByteChannel {
+
+        private final ByteBuffer data;
+        private final int chunkSize;
+        private boolean nothingAvailable;
+
+        ChunkedChannel(byte[] data, int chunkSize) {
+            this.data = ByteBuffer.wrap(data);
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (nothingAvailable) {
+                return 0;
+            }
+            if (!data.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(chunkSize, data.remaining()), destination.remaining());
+            for (int i = 0; i < count; i++) {
+                destination.put(data.get());
+            }
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -15,14 +15,104 @@
  */
 package de.spinscale.maxcube.client;
 
-import org.junit.Ignore;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
 
-// not sure if this client is suited
-@Ignore
 public class MinaCubeClientTest extends CubeClientTest {
 
     @Override
     CubeClient getCubeClient(String host, int port) {
-        return new MinaCubeClient(host ,port);
+        MinaCubeClient client = new MinaCubeClient(host, port);
+        // run the shared client tests through the async client
+        return new CubeClient() {
+            @Override
+            public Cube connect() throws Exception {
+                return client.connect().get();
+            }
+
+            @Override
+            public Cube refresh() throws Exception {
+                return client.refresh().get();
+            }
+
+            @Override
+            public boolean boost(Room room) throws Exception {
+                return client.boost(room).get();
+            }
+
+            @Override
+            public boolean holiday(Room room, LocalDateTime endTime, int temperature) throws Exception {
+                return client.holiday(room, endTime, temperature).get();
+            }
+
+            @Override
+            public void close() throws IOException {
+                client.close();
+            }
+        };
+    }
+
+    @Test
+    public void testClientsShareConnector() throws Exception {
+        boolean successfulResponse = randomBoolean();
+        handler.configureBoostResponse(randomIntBetween(1, 100), successfulResponse, randomIntBetween(1, 255));
+
+        try (MinaCubeConnector connector = new MinaCubeConnector(randomIntBetween(1, 4))) {
+            List<MinaCubeClient> clients = new ArrayList<>();
+            List<CompletableFuture<Boolean>> boosts = new ArrayList<>();
+            int count = randomIntBetween(2, 10);
+            for (int i = 0; i < count; i++) {
+                MinaCubeClient client = connector.newClient("localhost", server.getPort());
+                clients.add(client);
+                boosts.add(client.connect().thenCompose(cube -> client.boost(cube.getRooms().get(0))));
+            }
+
+            for (CompletableFuture<Boolean> boost : boosts) {
+                assertThat(boost.get(), is(successfulResponse));
+            }
+            for (MinaCubeClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    @Test
+    public void testCommandFailsWhenNotConnected() throws Exception {
+        try (MinaCubeClient client = new MinaCubeClient("localhost", server.getPort())) {
+            Room room = new Room(1, "room", 1);
+            room.getDevices().add(new Device(DeviceType.THERMOSTAST, "thermostat", "serial", 2));
+            ExecutionException e = expectThrows(ExecutionException.class, () -> client.boost(room).get());
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+    }
+
+    @Test
+    public void testCommandTimesOut() throws Exception {
+        handler.ignoreCommands();
+
+        try (MinaCubeClient client = new MinaCubeClient("localhost", server.getPort())) {
+            client.setCommandTimeout(Duration.ofMillis(randomIntBetween(10, 200)));
+            Cube cube = client.connect().get();
+            assertThat(cube.getRooms(), hasSize(5));
+            ExecutionException e = expectThrows(ExecutionException.class, () -> client.boost(cube.getRooms().get(0)).get());
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+        }
     }
 }
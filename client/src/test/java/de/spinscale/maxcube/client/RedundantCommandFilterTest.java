@@ -0,0 +1,105 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+
+public class RedundantCommandFilterTest extends CubeTestCase {
+
+    // rounded to the next half hour by the cube
+    private final LocalDateTime endTime = LocalDateTime.of(2017, 2, 1, 11, 50, 42);
+
+    @Test
+    public void testHolidayInSameStateIsSuppressed() {
+        Room room = createRoomOnHoliday(LocalDateTime.of(2017, 2, 1, 12, 0), 18);
+        RedundantCommandFilter filter = new RedundantCommandFilter();
+
+        assertThat(filter.suppress(RoomTarget.holiday(room, endTime, 18)), is(true));
+        assertThat(filter.getUnverifiedCount(), is(1));
+
+        assertThat(filter.suppress(RoomTarget.holiday(room, endTime, 19)), is(false));
+        assertThat(filter.suppress(RoomTarget.holiday(room, endTime.plusHours(1), 18)), is(false));
+        assertThat(filter.suppress(RoomTarget.boost(room)), is(false));
+
+        // all thermostats have to be on holiday
+        Device thermostat = room.getDevices().get(randomIntBetween(0, 1));
+        thermostat.setMode(randomFrom(Parser.Mode.AUTO, Parser.Mode.MANUAL, Parser.Mode.BOOST));
+        assertThat(filter.suppress(RoomTarget.holiday(room, endTime, 18)), is(false));
+        assertThat(filter.getUnverifiedCount(), is(1));
+    }
+
+    @Test
+    public void testRoomWithoutThermostatIsNeverInState() {
+        Room room = new Room(1, "Keller", 1);
+        Device window = new Device(DeviceType.SHUTTER_CONTACT, "window", "serial", 2);
+        window.setConfiguredTemperature(18);
+        room.getDevices().add(window);
+        assertThat(RedundantCommandFilter.isInState(RoomTarget.holiday(room, endTime, 18)), is(false));
+    }
+
+    @Test
+    public void testSuppressedCommandsAreVerified() {
+        Room room = createRoomOnHoliday(LocalDateTime.of(2017, 2, 1, 12, 0), 18);
+        RedundantCommandFilter filter = new RedundantCommandFilter();
+        RoomTarget target = RoomTarget.holiday(room, endTime, 18);
+        assertThat(filter.suppress(target), is(true));
+
+        // the next device list confirms the state
+        assertThat(filter.verify(), is(empty()));
+        assertThat(filter.getUnverifiedCount(), is(0));
+
+        // the next device list shows the room has left holiday mode meanwhile
+        assertThat(filter.suppress(target), is(true));
+        room.getDevices().get(randomIntBetween(0, 1)).setConfiguredTemperature(21);
+        assertThat(filter.verify(), contains(target));
+        assertThat(filter.getUnverifiedCount(), is(0));
+    }
+
+    @Test
+    public void testSentCommandReplacesSuppressedOne() {
+        Room room = createRoomOnHoliday(LocalDateTime.of(2017, 2, 1, 12, 0), 18);
+        RedundantCommandFilter filter = new RedundantCommandFilter();
+        assertThat(filter.suppress(RoomTarget.holiday(room, endTime, 18)), is(true));
+
+        filter.sent(room);
+        room.getDevices().get(0).setConfiguredTemperature(21);
+        assertThat(filter.verify(), is(empty()));
+    }
+
+    private Room createRoomOnHoliday(LocalDateTime until, double temperature) {
+        Room room = new Room(1, "Bad", 10);
+        for (int i = 0; i < 2; i++) {
+            Device thermostat = new Device(DeviceType.THERMOSTAST, "valve " + i, "serial" + i, 10 + i);
+            thermostat.setMode(Parser.Mode.VACATION);
+            thermostat.setEndTime(until);
+            thermostat.setConfiguredTemperature(temperature);
+            room.getDevices().add(thermostat);
+        }
+        return room;
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.client;
+
+import de.spinscale.maxcube.client.ResilientCubeClient.Health;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ResilientCubeClientTest extends CubeTestCase {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+    private final Cube cube = new Cube("KEQ0537741", 759698, "1.1.3", LocalDateTime.now());
+
+    @Test
+    public void testReconnectsAfterConnectionFailure() throws Exception {
+        CubeClient first = connectedClient();
+        when(first.refresh()).thenThrow(new EOFException("Stream reached end"));
+        CubeClient second = connectedClient();
+        when(second.refresh()).thenReturn(cube);
+        Deque<CubeClient> clients = new ArrayDeque<>();
+        clients.add(first);
+        clients.add(second);
+
+        try (ResilientCubeClient client = newClient(clients::pollFirst, 5)) {
+            assertThat(client.getHealth(), is(Health.DISCONNECTED));
+            assertThat(client.connect(), is(sameInstance(cube)));
+            assertThat(client.getHealth(), is(Health.CONNECTED));
+
+            expectThrows(EOFException.class, client::refresh);
+            verify(first).close();
+            assertThat(client.getHealth(), is(Health.DEGRADED));
+            assertThat(client.getConsecutiveFailures(), is(1));
+
+            // still backing off, so no new client is created
+            expectThrows(ConnectException.class, client::refresh);
+            assertThat(clients.size(), is(1));
+
+            nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            assertThat(client.refresh(), is(sameInstance(cube)));
+            assertThat(clients.size(), is(0));
+            assertThat(client.getHealth(), is(Health.CONNECTED));
+            assertThat(client.getConsecutiveFailures(), is(0));
+        }
+        verify(second).close();
+    }
+
+    @Test
+    public void testCircuitOpensAfterConsecutiveFailures() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        int threshold = randomIntBetween(1, 5);
+
+        try (ResilientCubeClient client = newClient(() -> {
+            created.incrementAndGet();
+            return unreachableClient();
+        }, threshold)) {
+            for (int i = 1; i < threshold; i++) {
+                expectThrows(ConnectException.class, client::connect);
+                assertThat(client.getHealth(), is(Health.DEGRADED));
+                nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(4));
+            }
+            expectThrows(ConnectException.class, client::connect);
+            assertThat(client.getHealth(), is(Health.OPEN_CIRCUIT));
+            assertThat(created.get(), is(threshold));
+
+            // fails fast while the circuit is open
+            nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(59));
+            expectThrows(ConnectException.class, client::connect);
+            assertThat(created.get(), is(threshold));
+
+            // and tries again afterwards
+            nanoTime.addAndGet(TimeUnit.SECONDS.toNanos(1));
+            expectThrows(ConnectException.class, client::connect);
+            assertThat(created.get(), is(threshold + 1));
+            assertThat(client.getHealth(), is(Health.OPEN_CIRCUIT));
+        }
+    }
+
+    @Test
+    public void testOtherFailuresDoNotAffectHealth() throws Exception {
+        CubeClient delegate = connectedClient();
+        when(delegate.boost(any(Room.class))).thenThrow(new IllegalArgumentException("Room has no thermostat"));
+
+        try (ResilientCubeClient client = newClient(() -> delegate, 1)) {
+            client.connect();
+            expectThrows(IllegalArgumentException.class, () -> client.boost(new Room(1, "Bad", 123)));
+            assertThat(client.getHealth(), is(Health.CONNECTED));
+            assertThat(client.getConsecutiveFailures(), is(0));
+        }
+    }
+
+    @Test
+    public void testMalformedCubeDataIsNoConnectionFailure() throws Exception {
+        CubeClient broken = mock(CubeClient.class);
+        when(broken.connect()).thenThrow(new IllegalStateException("Malformed header line"));
+        AtomicInteger created = new AtomicInteger();
+
+        try (ResilientCubeClient client = newClient(() -> {
+            created.incrementAndGet();
+            return broken;
+        }, 1)) {
+            expectThrows(IllegalStateException.class, client::connect);
+            verify(broken).close();
+            assertThat(client.getHealth(), is(Health.DISCONNECTED));
+            assertThat(client.getConsecutiveFailures(), is(0));
+
+            // no backoff, the next call connects right away
+            expectThrows(IllegalStateException.class, client::connect);
+            assertThat(created.get(), is(2));
+        }
+    }
+
+    @Test
+    public void testBackoffIsJitteredAndCapped() throws Exception {
+        ResilientCubeClient client = newClient(() -> null, 5);
+        long initial = TimeUnit.SECONDS.toNanos(1);
+        long max = TimeUnit.SECONDS.toNanos(4);
+        assertThat(client.backoffNanos(1), is(allOf(greaterThanOrEqualTo(initial / 2), lessThanOrEqualTo(initial))));
+        assertThat(client.backoffNanos(2), is(allOf(greaterThanOrEqualTo(initial), lessThanOrEqualTo(2 * initial))));
+        assertThat(client.backoffNanos(randomIntBetween(3, 100)), is(allOf(greaterThanOrEqualTo(max / 2), lessThanOrEqualTo(max))));
+    }
+
+    @Test
+    public void testClosedClientDoesNotReconnect() throws Exception {
+        CubeClient delegate = connectedClient();
+        ResilientCubeClient client = newClient(() -> delegate, 5);
+        client.connect();
+        client.close();
+        verify(delegate).close();
+        assertThat(client.getHealth(), is(Health.DISCONNECTED));
+        expectThrows(IllegalStateException.class, client::connect);
+    }
+
+    private ResilientCubeClient newClient(Supplier<CubeClient> factory, int threshold) {
+        return new ResilientCubeClient(factory, Duration.ofSeconds(1), Duration.ofSeconds(4), threshold, Duration.ofMinutes(1),
+                nanoTime::get, new Random(randomLong()));
+    }
+
+    private CubeClient connectedClient() throws Exception {
+        CubeClient client = mock(CubeClient.class);
+        when(client.connect()).thenReturn(cube);
+        return client;
+    }
+
+    private CubeClient unreachableClient() {
+        CubeClient client = mock(CubeClient.class);
+        try {
+            when(client.connect()).thenThrow(new ConnectException("Connection refused"));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+        return client;
+    }
+}
@@ -15,10 +15,243 @@
  */
 package de.spinscale.maxcube.client;
 
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.data.ParserTest;
+import de.spinscale.maxcube.entities.Configuration;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.CubeEvent;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.metrics.CubeMetricsSnapshot;
+import de.spinscale.maxcube.metrics.InMemoryCubeMetrics;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
 public class SocketCubeClientTest extends CubeClientTest {
 
     @Override
     CubeClient getCubeClient(String host, int port) {
         return new SocketCubeClient("localhost", port);
     }
+
+    @Test
+    public void testPipelinedCommands() throws Exception {
+        boolean successfulResponse = randomBoolean();
+        int dutyCycle = randomIntBetween(1, 100);
+        handler.configureBoostResponse(dutyCycle, successfulResponse, randomIntBetween(1, 255));
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            List<CompletableFuture<Boolean>> futures = new ArrayList<>();
+            int commands = randomIntBetween(2, 20);
+            for (int i = 0; i < commands; i++) {
+                futures.add(client.sendBoost(randomFrom(cube.getRooms().get(0), cube.getRooms().get(2)), Duration.ofSeconds(5)));
+            }
+
+            for (CompletableFuture<Boolean> future : futures) {
+                try {
+                    assertThat(future.get(), is(successfulResponse));
+                } catch (ExecutionException e) {
+                    // once a reply exhausts the duty cycle budget, the following commands fail instead of waiting
+                    assertThat(e.getCause(), instanceOf(TimeoutException.class));
+                    assertThat(dutyCycle + commands, greaterThan(CommandScheduler.DEFAULT_DUTY_CYCLE_BUDGET));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidCommandsFailBeforeBeingQueued() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            // valid commands would have to wait for the budget
+            client.getCommandScheduler().update(100, 1);
+
+            expectThrows(IllegalArgumentException.class, () -> client.sendBoost(new Room(99, "Keller", 1), Duration.ofSeconds(5)));
+            expectThrows(IllegalArgumentException.class,
+                    () -> client.sendHoliday(cube.getRooms().get(0), LocalDateTime.now(), 32, Duration.ofSeconds(5)));
+            assertThat(client.getCommandScheduler().getQueueDepth(), is(0));
+        }
+    }
+
+    @Test
+    public void testCommandsOverBudgetFailWithoutWaiting() throws Exception {
+        handler.configureBoostResponse(randomIntBetween(90, 100), true, randomIntBetween(1, 255));
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            // the duty cycle of the header allows the first command, its reply exhausts the budget
+            assertThat(client.boost(cube.getRooms().get(0)), is(true));
+            assertThat(handler.pollCommand(5, TimeUnit.SECONDS), is(notNullValue()));
+
+            TimeoutException e = expectThrows(TimeoutException.class, () -> client.boost(cube.getRooms().get(2)));
+            assertThat(e.getMessage(), containsString("Duty cycle budget [90] does not allow sending within [PT5S]"));
+            assertThat(client.getCommandScheduler().getQueueDepth(), is(0));
+            assertThat(handler.pollCommand(100, TimeUnit.MILLISECONDS), is(nullValue()));
+        }
+    }
+
+    @Test
+    public void testConfigurationsAreDecodedInParallel() throws Exception {
+        Parser parser = new Parser();
+        String[] lines = ParserTest.input.split("\n");
+        Cube expected = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(expected, lines[i]);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(randomIntBetween(1, 4));
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            client.setConfigurationExecutor(randomFrom(executor, null));
+            Cube cube = client.connect();
+            assertThat(cube.getConfiguration().getSerial(), is(expected.getSerial()));
+            for (Room room : expected.getRooms()) {
+                for (Device device : room.getDevices()) {
+                    Configuration configuration = cube.findDeviceBySerial(device.getSerial()).getConfiguration();
+                    assertThat(configuration.contentEquals(device.getConfiguration()), is(true));
+                }
+            }
+        } finally {
+            terminate(executor, 10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        InMemoryCubeMetrics metrics = new InMemoryCubeMetrics();
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            client.setMetrics(metrics);
+            Cube cube = client.connect();
+            client.refresh();
+            client.boost(cube.getRooms().get(0));
+        }
+
+        CubeMetricsSnapshot snapshot = metrics.snapshot("localhost:" + server.getPort()).get();
+        assertThat(snapshot.getMessageCount('H'), is(1L));
+        assertThat(snapshot.getMessageCount('M'), is(1L));
+        assertThat(snapshot.getMessageCount('C'), is(9L));
+        assertThat(snapshot.getMessageCount('L'), is(2L));
+        assertThat(snapshot.getMessageCount('S'), is(1L));
+        assertThat(snapshot.getBytesReceived(), is(greaterThan((long) ParserTest.input.length())));
+        assertThat(snapshot.getConnectLatency().getCount(), is(1L));
+        assertThat(snapshot.getSnapshotLatency().getCount(), is(1L));
+        assertThat(snapshot.getCommandLatency().getCount(), is(2L));
+        assertThat(snapshot.getParseLatency('C').getCount(), is(9L));
+        assertThat(snapshot.getParseLatency('L').getCount(), is(2L));
+    }
+
+    @Test
+    public void testCommandTimesOut() throws Exception {
+        handler.ignoreCommands();
+
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            CompletableFuture<Boolean> future = client.sendBoost(cube.getRooms().get(0), Duration.ofMillis(randomIntBetween(10, 200)));
+            ExecutionException e = expectThrows(ExecutionException.class, future::get);
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+
+            // later replies could not be matched to their commands, so the connection is closed
+            CompletableFuture<Boolean> next = client.sendBoost(cube.getRooms().get(0), Duration.ofSeconds(10));
+            e = expectThrows(ExecutionException.class, next::get);
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    @Test
+    public void testListenAppliesPushedLines() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            client.listen(Duration.ofMinutes(1));
+            assertThat(client.isListening(), is(true));
+
+            CountDownLatch latch = new CountDownLatch(1);
+            Room room = cube.findRoom("Wohnzimmer");
+            room.setCurrentTemperature(0);
+            cube.addListener(room, event -> {
+                if (event.getType() == CubeEvent.Type.CURRENT_TEMPERATURE_CHANGED) {
+                    latch.countDown();
+                }
+            });
+
+            String[] lines = ParserTest.input.split("\n");
+            server.push(lines[lines.length - 1]);
+            assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+            assertThat(room.getCurrentTemperature(), is(23.9));
+        }
+    }
+
+    @Test
+    public void testSuppressedCommandIsVerifiedWithPushedDeviceList() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            client.setSuppressRedundantCommands(true);
+            Cube cube = client.connect();
+            client.listen(Duration.ofMinutes(1));
+
+            // the client believes the room is on holiday already
+            Room room = cube.findRoom("Wohnzimmer");
+            // the cube rounds the end time to the next half hour
+            LocalDateTime endTime = LocalDateTime.of(2017, 2, 1, 11, 50);
+            Device thermostat = room.findThermostat();
+            thermostat.setMode(Parser.Mode.VACATION);
+            thermostat.setEndTime(LocalDateTime.of(2017, 2, 1, 12, 0));
+            thermostat.setConfiguredTemperature(18);
+            assertThat(client.holiday(room, endTime, 18), is(true));
+            assertThat(handler.pollCommand(100, TimeUnit.MILLISECONDS), is(nullValue()));
+
+            // the device list sent by the cube on its own shows the room in auto mode, without any refresh
+            String[] lines = ParserTest.input.split("\n");
+            server.push(lines[lines.length - 1]);
+            assertThat(handler.pollCommand(5, TimeUnit.SECONDS), is(notNullValue()));
+        }
+    }
+
+    @Test
+    public void testListenRefreshesWhenIdle() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            Cube cube = client.connect();
+            CountDownLatch latch = new CountDownLatch(2);
+            Room room = cube.findRoom("Wohnzimmer");
+            cube.addListener(room, event -> {
+                if (event.getType() == CubeEvent.Type.CURRENT_TEMPERATURE_CHANGED) {
+                    // reset, so that the next refresh changes the temperature again
+                    room.setCurrentTemperature(0);
+                    latch.countDown();
+                }
+            });
+            room.setCurrentTemperature(0);
+
+            client.listen(Duration.ofMillis(randomIntBetween(10, 100)));
+            assertThat(latch.await(5, TimeUnit.SECONDS), is(true));
+
+            client.stopListening();
+            assertThat(client.isListening(), is(false));
+        }
+    }
+
+    @Test
+    public void testListenRequiresConnection() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", server.getPort())) {
+            expectThrows(IllegalStateException.class, () -> client.listen(Duration.ofSeconds(1)));
+        }
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assume.assumeTrue;
+
+public class CommandEncoderTest extends CubeTestCase {
+
+    @Test
+    public void testHolidayFrame() {
+        Room room = new Room(1, "foo", 123456);
+        room.getDevices().add(new Device(DeviceType.THERMOSTAST, "foo", "serial", 1039085));
+
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        int length = new CommandEncoder().encodeHoliday(room, LocalDateTime.of(2011, Month.AUGUST, 29, 1, 59), 19, frame);
+        assertThat(length, is(frame.position()));
+        assertThat(new String(frame.array(), 0, length, US_ASCII), is("s:AARAAAAAD9rtAaadCwQ=\r\n"));
+    }
+
+    @Test
+    public void testFramesMatchGenerator() throws Exception {
+        CommandEncoder encoder = new CommandEncoder();
+        ByteBuffer frame = ByteBuffer.allocate(randomIntBetween(CommandEncoder.MAX_FRAME_SIZE, 100));
+        for (int i = 0; i < 20; i++) {
+            Room room = new Room(randomIntBetween(0, 255), "room", randomIntBetween(0, 0xffffff));
+            room.getDevices().add(new Device(DeviceType.THERMOSTAST, "name", "serial", randomIntBetween(0, 0xffffff)));
+            LocalDateTime endTime = LocalDateTime.of(randomIntBetween(2016, 2030), randomIntBetween(1, 12), randomIntBetween(1, 28),
+                    randomIntBetween(0, 23), randomIntBetween(0, 59));
+            int temperature = randomIntBetween(0, 31);
+
+            frame.clear();
+            int length = encoder.encodeBoost(room, frame);
+            assertThat(new String(frame.array(), 0, length, US_ASCII), is(Generator.writeBoostRequest(room) + "\r\n"));
+
+            frame.clear();
+            length = encoder.encodeHoliday(room, endTime, temperature, frame);
+            assertThat(new String(frame.array(), 0, length, US_ASCII),
+                    is(Generator.writeHolidayRequest(room, endTime, temperature) + "\r\n"));
+        }
+    }
+
+    @Test
+    public void testCachedHeaderFollowsRoomOfThermostat() throws Exception {
+        Device thermostat = new Device(DeviceType.THERMOSTAST, "name", "serial", 67890);
+        Room first = new Room(1, "first", 12345);
+        first.getDevices().add(thermostat);
+        Room second = new Room(2, "second", 12346);
+        second.getDevices().add(thermostat);
+
+        CommandEncoder encoder = new CommandEncoder();
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        encoder.encodeBoost(first, frame);
+        frame.clear();
+        int length = encoder.encodeBoost(second, frame);
+        assertThat(new String(frame.array(), 0, length, US_ASCII), is(Generator.writeBoostRequest(second) + "\r\n"));
+    }
+
+    @Test
+    public void testRoomWithSeveralThermostatsIsAddressedAsGroup() {
+        Room room = new Room(randomIntBetween(1, 255), "room", 12345);
+        room.getDevices().add(new Device(DeviceType.SHUTTER_CONTACT, "window", "serial1", 12344));
+        room.getDevices().add(new Device(DeviceType.THERMOSTAST, "valve", "serial2", 12345));
+        assertThat(CommandEncoder.targetAddress(room), is(12345));
+        assertThat(decodeBoost(room)[8] & 0xff, is(12345 & 0xff));
+
+        DeviceType type = randomFrom(DeviceType.THERMOSTAST, DeviceType.THERMOSTAST_PLUS, DeviceType.WALLTHERMOSTAT);
+        room.getDevices().add(new Device(type, "second", "serial3", 12346));
+        assertThat(CommandEncoder.targetAddress(room), is(CommandEncoder.GROUP_ADDRESS));
+        byte[] request = decodeBoost(room);
+        assertThat(request[6] | request[7] | request[8], is(0));
+        assertThat(request[9] & 0xff, is(room.getId()));
+    }
+
+    @Test
+    public void testTooSmallBufferIsNotWritten() {
+        Room room = new Room(1, "foo", 123456);
+        room.getDevices().add(new Device(DeviceType.THERMOSTAST, "foo", "serial", 1039085));
+
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE - 1);
+        expectThrows(BufferOverflowException.class, () -> new CommandEncoder().encodeHoliday(room, LocalDateTime.now(), 20, frame));
+        assertThat(frame.position(), is(0));
+    }
+
+    @Test
+    public void testTemperatureOutOfRange() {
+        Room room = new Room(1, "foo", 123456);
+        room.getDevices().add(new Device(DeviceType.THERMOSTAST, "foo", "serial", 1039085));
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        expectThrows(IllegalArgumentException.class, () -> new CommandEncoder().encodeHoliday(room, LocalDateTime.now(), 32, frame));
+    }
+
+    private static byte[] decodeBoost(Room room) {
+        ByteBuffer frame = ByteBuffer.allocate(CommandEncoder.MAX_FRAME_SIZE);
+        int length = new CommandEncoder().encodeBoost(room, frame);
+        return Base64.getDecoder().decode(new String(frame.array(), 2, length - 4, US_ASCII));
+    }
+
+    @Test
+    public void testBoostDoesNotAllocate() {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("allocation counters are not supported by this JVM", threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue("allocation counters are not supported by this JVM", allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        Room room = new Room(1, "foo", 123456);
+        room.getDevices().add(new Device(DeviceType.THERMOSTAST, "foo", "serial", 1039085));
+        CommandEncoder encoder = new CommandEncoder();
+        ByteBuffer frame = ByteBuffer.allocateDirect(CommandEncoder.MAX_FRAME_SIZE);
+
+        long threadId = Thread.currentThread().getId();
+        int iterations = 10_000;
+        // the first iterations fill the header cache and the caches of the JVM
+        for (int i = 0; i < iterations; i++) {
+            frame.clear();
+            encoder.encodeBoost(room, frame);
+        }
+
+        // a recompilation in the middle of a round can run the code without escape analysis, so take the best round
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 3 && allocated >= iterations; round++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            long overhead = allocations.getThreadAllocatedBytes(threadId) - before;
+            before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                frame.clear();
+                encoder.encodeBoost(room, frame);
+            }
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(threadId) - before - overhead);
+        }
+        // less than a byte per encoded frame means that nothing is allocated per command
+        assertThat("allocated [" + allocated + "] bytes", allocated < iterations, is(true));
+    }
+}
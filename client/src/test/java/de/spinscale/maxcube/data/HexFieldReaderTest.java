@@ -0,0 +1,63 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class HexFieldReaderTest extends CubeTestCase {
+
+    @Test
+    public void testReadingFields() {
+        int first = randomIntBetween(0, Integer.MAX_VALUE);
+        int second = randomIntBetween(0, 255);
+        String field = randomAsciiOfLength(8);
+        String line = String.format(Locale.ROOT, "X:%s,%x,%s,%02X%02x", field, first, Integer.toHexString(second).toUpperCase(Locale.ROOT),
+                second, first & 0xff);
+
+        HexFieldReader reader = new HexFieldReader().reset(line, 2);
+        assertThat(reader.readString(), is(field));
+        assertThat(reader.readHex(), is(first));
+        assertThat(reader.readHex(), is(second));
+        assertThat(reader.readHex(2), is(second));
+        assertThat(reader.readHex(2), is(first & 0xff));
+        assertThat(reader.readDigit(), is(-1));
+        assertThat(reader.hasMoreFields(), is(false));
+    }
+
+    @Test
+    public void testInvalidFields() {
+        HexFieldReader reader = new HexFieldReader();
+        expectThrows(NumberFormatException.class, () -> reader.reset("S:,1", 2).readHex());
+        expectThrows(NumberFormatException.class, () -> reader.reset("S:1G", 2).readHex());
+        expectThrows(NumberFormatException.class, () -> reader.reset("S:1ä", 2).readHex());
+        expectThrows(NumberFormatException.class, () -> reader.reset("H:123", 2).readHex(4));
+    }
+
+    @Test
+    public void testFirmwareVersionOfHeader() {
+        Parser parser = new Parser();
+        assertThat(parser.parseHeader("H:KEQ0537741,0b9792,0113,00000000,78c816bb,01,32,11010f,0d22,03,0000").getFirmwareVersion(),
+                is("1.1.3"));
+        assertThat(parser.parseHeader("H:KEQ0537741,0b9792,010a,00000000,78c816bb,01,32,11010f,0d22,03,0000").getFirmwareVersion(),
+                is("1.0.10"));
+    }
+}
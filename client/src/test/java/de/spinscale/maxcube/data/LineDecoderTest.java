@@ -0,0 +1,75 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.data;
+
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+public class LineDecoderTest extends CubeTestCase {
+
+    @Test
+    public void testDecodesLikeJdk() {
+        LineDecoder decoder = new LineDecoder();
+        for (int iteration = 0; iteration < 100; iteration++) {
+            byte[] data = new byte[randomIntBetween(0, 1024)];
+            getRandom().nextBytes(data);
+            String line = randomFrom("L:", "M:00,01,", "C:0b9792,") + Base64.getEncoder().encodeToString(data);
+
+            assertThat(read(decoder.decodeLastField(line)), is(data));
+
+            // the line might be somewhere in the middle of a larger buffer
+            byte[] bytes = line.getBytes(UTF_8);
+            int offset = randomIntBetween(0, 10);
+            ByteBuffer buffer = ByteBuffer.allocate(bytes.length + offset + 10);
+            buffer.position(offset);
+            buffer.put(bytes);
+            buffer.limit(offset + bytes.length);
+            buffer.position(offset);
+            assertThat(read(decoder.decodeLastField(buffer)), is(data));
+            assertThat(buffer.position(), is(offset));
+        }
+    }
+
+    @Test
+    public void testUnpaddedInput() {
+        LineDecoder decoder = new LineDecoder();
+        assertThat(read(decoder.decodeLastField("L:AAEC")), is(new byte[] { 0, 1, 2 }));
+        assertThat(read(decoder.decodeLastField("L:AAE")), is(new byte[] { 0, 1 }));
+        assertThat(read(decoder.decodeLastField("L:AA")), is(new byte[] { 0 }));
+        assertThat(read(decoder.decodeLastField("L:")), is(new byte[0]));
+    }
+
+    @Test
+    public void testIllegalCharacter() {
+        LineDecoder decoder = new LineDecoder();
+        expectThrows(IllegalArgumentException.class, () -> decoder.decodeLastField("L:AA*B"));
+        expectThrows(IllegalArgumentException.class, () -> decoder.decodeLastField(ByteBuffer.wrap("L:AAÄB".getBytes(UTF_8))));
+    }
+
+    private static byte[] read(ByteCursor cursor) {
+        byte[] bytes = new byte[cursor.available()];
+        cursor.read(bytes, 0, bytes.length);
+        assertThat(cursor.read(), is(-1));
+        return bytes;
+    }
+}
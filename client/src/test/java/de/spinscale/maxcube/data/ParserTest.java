@@ -15,23 +15,39 @@
  */
 package de.spinscale.maxcube.data;
 
+import de.spinscale.maxcube.entities.Configuration.ValveConfiguration;
 import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.CubeEvent;
+import de.spinscale.maxcube.entities.CubeListener;
 import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
 import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.entities.WeeklyProgram;
 import de.spinscale.maxcube.test.CubeTestCase;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.time.DayOfWeek;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.Month;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assume.assumeTrue;
 
 public class ParserTest extends CubeTestCase {
 
@@ -73,6 +89,8 @@ public class ParserTest extends CubeTestCase {
         assertThat(cube.getRfaddress(), is(759698));
         assertThat(cube.getFirmwareVersion(), is("1.1.3"));
         assertThat(cube.getDate().toString(), is("2017-01-15T13:34"));
+        assertThat(cube.getDutyCycle(), is(1));
+        assertThat(cube.getFreeMemorySlots(), is(50));
 
         assertThat(cube.findRoom("Bad").getCurrentTemperature(), is(18.2));
         assertThat(cube.findRoom("Küche").getCurrentTemperature(), is(21.5));
@@ -98,6 +116,287 @@ public class ParserTest extends CubeTestCase {
         assertThat(deviceBySerial, is(deviceByRadioAddress));
     }
 
+    @Test
+    public void testParseFromByteBuffer() throws Exception {
+        Parser stringParser = new Parser();
+        Parser bufferParser = new Parser();
+        String[] lines = input.split("\n");
+        Cube expected = stringParser.parseHeader(lines[0]);
+        Cube cube = bufferParser.parseHeader(lines[0]);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+        for (int i = 1; i < lines.length; i++) {
+            stringParser.parse(expected, lines[i]);
+            buffer.clear();
+            buffer.put(lines[i].getBytes(UTF_8));
+            buffer.flip();
+            bufferParser.parse(cube, buffer);
+        }
+
+        assertThat(cube.getRooms(), hasSize(expected.getRooms().size()));
+        for (Room expectedRoom : expected.getRooms()) {
+            Room room = cube.findRoom(expectedRoom.getId());
+            assertThat(room.getName(), is(expectedRoom.getName()));
+            assertThat(room.getCurrentTemperature(), is(expectedRoom.getCurrentTemperature()));
+            assertThat(room.getValvePositionInPercent(), is(expectedRoom.getValvePositionInPercent()));
+            assertThat(room.isWindowOpen(), is(expectedRoom.isWindowOpen()));
+            for (Device expectedDevice : expectedRoom.getDevices()) {
+                Device device = cube.findDeviceBySerial(expectedDevice.getSerial());
+                assertThat(device.getName(), is(expectedDevice.getName()));
+                assertThat(device.getRfaddress(), is(expectedDevice.getRfaddress()));
+                assertThat(device.getMode(), is(expectedDevice.getMode()));
+                assertThat(device.getConfiguration().getSerial(), is(expectedDevice.getSerial()));
+            }
+        }
+    }
+
+    @Test
+    public void testConfigurationIsReusedWhileUnchanged() throws Exception {
+        Parser parser = new Parser();
+        String[] lines = input.split("\n");
+        Cube cube = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(cube, lines[i]);
+        }
+
+        Device device = cube.findDeviceBySerial("LEQ0023181");
+        ValveConfiguration configuration = (ValveConfiguration) device.getConfiguration();
+        assertThat(configuration.getTemperatureComfort(), is(21.5));
+        assertThat(configuration.getTemperatureEco(), is(16.5));
+        assertThat(configuration.getTemperatureSetpointMax(), is(30.5));
+        assertThat(configuration.getTemperatureSetpointMin(), is(4.5));
+        assertThat(configuration.getTemperatureOffset(), is(0.0));
+        assertThat(configuration.getTemperatureWindowOpen(), is(12.0));
+        assertThat(configuration.getValveMaximum(), is(100.0));
+
+        // a reconnect with the same parser keeps the instance, as long as the bytes are the same
+        Cube reconnected = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(reconnected, lines[i]);
+        }
+        assertThat(reconnected.findDeviceBySerial("LEQ0023181").getConfiguration() == configuration, is(true));
+
+        // a changed comfort temperature, 22 instead of 21.5 degrees
+        String changed = "C:0e5cbb,0g5cuwIFEABMRVEwMDIzMTgxLCE9CQcYA1JK" + lines[3].substring(lines[3].indexOf('/'));
+        parser.parse(reconnected, changed);
+        ValveConfiguration changedConfiguration = (ValveConfiguration) reconnected.findDeviceBySerial("LEQ0023181").getConfiguration();
+        assertThat(changedConfiguration == configuration, is(false));
+        assertThat(changedConfiguration.getTemperatureComfort(), is(22.0));
+        assertThat(changedConfiguration.getTemperatureEco(), is(16.5));
+    }
+
+    @Test
+    public void testWeeklyProgram() throws Exception {
+        Parser parser = new Parser();
+        String[] lines = input.split("\n");
+        Cube cube = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(cube, lines[i]);
+        }
+
+        Device device = cube.findDeviceBySerial("KEQ0449675");
+        WeeklyProgram program = ((ValveConfiguration) device.getConfiguration()).getWeeklyProgram();
+        // weekends: 14 until 10:00, 16 until 22:00, 14 until midnight
+        assertThat(program.getSwitchPointCount(DayOfWeek.SATURDAY), is(3));
+        assertThat(program.getSwitchPointUntil(DayOfWeek.SUNDAY, 0), is(LocalTime.of(10, 0)));
+        assertThat(program.getSwitchPointUntil(DayOfWeek.SUNDAY, 2), is(LocalTime.MIDNIGHT));
+        assertThat(program.getTemperature(DayOfWeek.SATURDAY, LocalTime.of(9, 59)), is(14.0));
+        assertThat(program.getTemperature(DayOfWeek.SATURDAY, LocalTime.of(10, 0)), is(16.0));
+        assertThat(program.getTemperature(DayOfWeek.SUNDAY, LocalTime.of(23, 0)), is(14.0));
+        // weekdays: 14 until 5:35, 26 until 7:00, 14 until 23:45, 13.5 until midnight
+        assertThat(program.getSwitchPointCount(DayOfWeek.MONDAY), is(4));
+        assertThat(program.getTemperature(DayOfWeek.MONDAY, LocalTime.MIDNIGHT), is(14.0));
+        assertThat(program.getTemperature(DayOfWeek.TUESDAY, LocalTime.of(5, 35)), is(26.0));
+        assertThat(program.getTemperature(DayOfWeek.FRIDAY, LocalTime.of(6, 59)), is(26.0));
+        assertThat(program.getTemperature(DayOfWeek.FRIDAY, LocalTime.of(23, 59)), is(13.5));
+        expectThrows(IllegalArgumentException.class, () -> program.getSwitchPointTemperature(DayOfWeek.MONDAY, 4));
+
+        // 2017-01-16 is a monday
+        Room room = cube.findRoomForDevice(device.getRfaddress());
+        assertThat(room.getProgrammedTemperature(LocalDateTime.of(2017, 1, 16, 6, 30)), is(26.0));
+    }
+
+    @Test
+    public void testUnchangedDeviceListDoesNotAllocate() throws Exception {
+        ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        assumeTrue("allocation counters are not supported by this JVM", threadMXBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threadMXBean;
+        assumeTrue("allocation counters are not supported by this JVM", allocations.isThreadAllocatedMemorySupported());
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        Parser parser = new Parser();
+        String[] lines = input.split("\n");
+        Cube cube = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(cube, lines[i]);
+        }
+        String deviceList = lines[lines.length - 1];
+
+        long threadId = Thread.currentThread().getId();
+        int iterations = 10_000;
+        // the first iterations fill the caches of the JVM
+        for (int i = 0; i < iterations; i++) {
+            parser.parse(cube, deviceList);
+        }
+
+        // parsing an unchanged device list contains no allocation in its byte code, but a single round can still
+        // count a few kilobytes the JVM allocates on the test thread itself, for example when compiled code is
+        // replaced while the round runs. Those are one-off, so the cheapest of a few rounds is what parsing costs
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = allocations.getThreadAllocatedBytes(threadId);
+            long overhead = allocations.getThreadAllocatedBytes(threadId) - before;
+            before = allocations.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < iterations; i++) {
+                parser.parse(cube, deviceList);
+            }
+            allocated = Math.min(allocated, allocations.getThreadAllocatedBytes(threadId) - before - overhead);
+        }
+        // less than a byte per parsed device list means that nothing is allocated per parse
+        assertThat("allocated [" + allocated + "] bytes", allocated < iterations, is(true));
+    }
+
+    @Test
+    public void testDeviceListWithoutChangesFiresNoEvents() throws Exception {
+        Parser parser = new Parser();
+        Cube cube = parseInput(parser);
+        List<CubeEvent> events = new ArrayList<>();
+        cube.addListener(events::add);
+
+        parser.parse(cube, deviceListLine());
+        assertThat(events, hasSize(0));
+    }
+
+    @Test
+    public void testDeviceListFiresEventsOnChanges() throws Exception {
+        Parser parser = new Parser();
+        Cube cube = parseInput(parser);
+        Room livingRoom = cube.findRoom("Wohnzimmer");
+        Room sleepingRoom = cube.findRoom("Schlafzimmer");
+        livingRoom.setCurrentTemperature(20.0);
+        sleepingRoom.setWindowOpen(false);
+
+        List<CubeEvent> events = new ArrayList<>();
+        List<CubeEvent> livingRoomEvents = new ArrayList<>();
+        cube.addListener(events::add);
+        cube.addListener(livingRoom, livingRoomEvents::add);
+        parser.parse(cube, deviceListLine());
+
+        assertThat(events, hasSize(2));
+        CubeEvent windowOpened = events.stream().filter(e -> e.getType() == CubeEvent.Type.WINDOW_OPENED).findFirst().get();
+        assertThat(windowOpened.getRoom(), is(sleepingRoom));
+        assertThat(windowOpened.getDevice().getType(), is(DeviceType.SHUTTER_CONTACT));
+
+        assertThat(livingRoomEvents, hasSize(1));
+        CubeEvent temperatureChanged = livingRoomEvents.get(0);
+        assertThat(temperatureChanged.getType(), is(CubeEvent.Type.CURRENT_TEMPERATURE_CHANGED));
+        assertThat(temperatureChanged.getRoom(), is(livingRoom));
+        assertThat(temperatureChanged.getOldValue(), is(20.0));
+        assertThat(temperatureChanged.getNewValue(), is(23.9));
+        assertThat(events, hasItem(temperatureChanged));
+    }
+
+    @Test
+    public void testRemovedListenerIsNotNotified() throws Exception {
+        Parser parser = new Parser();
+        Cube cube = parseInput(parser);
+        Room livingRoom = cube.findRoom("Wohnzimmer");
+        List<CubeEvent> events = new ArrayList<>();
+        CubeListener listener = events::add;
+        cube.addListener(listener);
+        cube.addListener(livingRoom, listener);
+        cube.removeListener(listener);
+        assertThat(cube.hasListeners(), is(false));
+
+        livingRoom.setValvePositionInPercent(50);
+        parser.parse(cube, deviceListLine());
+        assertThat(events, hasSize(0));
+        assertThat(livingRoom.getValvePositionInPercent(), is(9));
+    }
+
+    @Test
+    public void testRoomValuesDoNotFlipBetweenDevices() throws Exception {
+        Cube cube = new Cube("KEQ0000001", 0x000001, "1.1.3", LocalDateTime.of(2017, 1, 15, 13, 34));
+        Room room = new Room(1, "Wohnzimmer", 0x000010);
+        cube.addRoom(room);
+        cube.addDevice(room, new Device(DeviceType.THERMOSTAST, "Links", "KEQ0000010", 0x000010));
+        cube.addDevice(room, new Device(DeviceType.THERMOSTAST, "Rechts", "KEQ0000011", 0x000011));
+        cube.addDevice(room, new Device(DeviceType.SHUTTER_CONTACT, "Fenster", "KEQ0000020", 0x000020));
+        cube.addDevice(room, new Device(DeviceType.SHUTTER_CONTACT, "Tuer", "KEQ0000021", 0x000021));
+
+        // both thermostats and both window contacts report different values
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeThermostat(bos, 0x000010, 10, 20.0, 19.5);
+        writeThermostat(bos, 0x000011, 30, 21.0, 21.0);
+        writeWindowContact(bos, 0x000020, true);
+        writeWindowContact(bos, 0x000021, false);
+        String deviceList = "L:" + Base64.getEncoder().encodeToString(bos.toByteArray());
+
+        List<CubeEvent> events = new ArrayList<>();
+        cube.addListener(events::add);
+        Parser parser = new Parser();
+        parser.parse(cube, deviceList);
+
+        assertThat(room.getValvePositionInPercent(), is(30));
+        assertThat(room.getConfiguredTemperature(), is(20.0));
+        assertThat(room.getCurrentTemperature(), is(19.5));
+        assertThat(room.isWindowOpen(), is(true));
+        assertThat(room.getDevices().get(1).getConfiguredTemperature(), is(21.0));
+        List<CubeEvent.Type> roomEvents = events.stream().map(CubeEvent::getType)
+                .filter(type -> type != CubeEvent.Type.MODE_CHANGED).collect(Collectors.toList());
+        assertThat(roomEvents, containsInAnyOrder(CubeEvent.Type.VALVE_POSITION_CHANGED, CubeEvent.Type.CONFIGURED_TEMPERATURE_CHANGED,
+                CubeEvent.Type.CURRENT_TEMPERATURE_CHANGED, CubeEvent.Type.WINDOW_OPENED));
+
+        events.clear();
+        parser.parse(cube, deviceList);
+        assertThat(events, hasSize(0));
+        assertThat(room.getValvePositionInPercent(), is(30));
+        assertThat(room.isWindowOpen(), is(true));
+    }
+
+    private static void writeThermostat(ByteArrayOutputStream bos, int rfaddress, int valvePosition, double setpoint, double temperature) {
+        bos.write(11);
+        writeRfAddress(bos, rfaddress);
+        // unknown, flags and auto mode
+        bos.write(0x09);
+        bos.write(0x12);
+        bos.write(0x18);
+        bos.write(valvePosition);
+        bos.write((int) (setpoint * 2));
+        bos.write(0);
+        bos.write((int) Math.round(temperature * 10));
+        bos.write(0);
+    }
+
+    private static void writeWindowContact(ByteArrayOutputStream bos, int rfaddress, boolean open) {
+        bos.write(6);
+        writeRfAddress(bos, rfaddress);
+        bos.write(0x09);
+        bos.write(0x12);
+        // an open window is reported as vacation mode
+        bos.write(open ? 0x12 : 0x10);
+    }
+
+    private static void writeRfAddress(ByteArrayOutputStream bos, int rfaddress) {
+        bos.write(rfaddress >> 16);
+        bos.write(rfaddress >> 8);
+        bos.write(rfaddress);
+    }
+
+    private Cube parseInput(Parser parser) throws Exception {
+        String[] lines = input.split("\n");
+        Cube cube = parser.parseHeader(lines[0]);
+        for (int i = 1; i < lines.length; i++) {
+            parser.parse(cube, lines[i]);
+        }
+        return cube;
+    }
+
+    private String deviceListLine() {
+        String[] lines = input.split("\n");
+        return lines[lines.length - 1];
+    }
+
     private List<Device> getAllDevices(Cube cube) {
         return cube.getRooms().stream()
                 .map(room -> room.getDevices())
@@ -107,7 +406,7 @@ public class ParserTest extends CubeTestCase {
 
     @Test
     public void testEmptyLine() {
-        expectThrows(IllegalArgumentException.class, () -> new Parser().parse(null, null));
+        expectThrows(IllegalArgumentException.class, () -> new Parser().parse(null, (String) null));
         expectThrows(IllegalArgumentException.class, () -> new Parser().parse(null, ""));
         expectThrows(IllegalArgumentException.class, () -> new Parser().parse(null, " "));
     }
@@ -131,6 +430,14 @@ public class ParserTest extends CubeTestCase {
         assertThat(new Parser().parseResponseS("S:12,1,34"), is(false));
     }
 
+    @Test
+    public void testParseCommandResponse() throws Exception {
+        Parser.CommandResponse response = new Parser().parseCommandResponse("S:A2,1,34");
+        assertThat(response.getDutyCycle(), is(162));
+        assertThat(response.isAccepted(), is(false));
+        assertThat(response.getFreeMemorySlots(), is(52));
+    }
+
     @Test
     public void testParseResponseSValidation() throws Exception {
         expectThrows(IllegalArgumentException.class, () -> new Parser().parseResponseS(null));
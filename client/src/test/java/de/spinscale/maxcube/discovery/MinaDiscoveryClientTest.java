@@ -15,6 +15,7 @@
  */
 package de.spinscale.maxcube.discovery;
 
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
 import de.spinscale.maxcube.test.CubeTestCase;
 import org.junit.Test;
 
@@ -36,6 +37,8 @@ import static org.hamcrest.Matchers.is;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
 public class MinaDiscoveryClientTest extends CubeTestCase {
 
     @Test
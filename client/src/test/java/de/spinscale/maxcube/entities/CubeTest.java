@@ -56,4 +56,29 @@ public class CubeTest extends CubeTestCase {
         expectThrows(IllegalArgumentException.class, () -> cube.findDeviceBySerial(randomAsciiOfLength(8)));
         expectThrows(IllegalArgumentException.class, () -> cube.findDeviceByRfAddress(randomInt(10)));
     }
+
+    @Test
+    public void testIndexesFollowAddedRoomsAndDevices() {
+        // index is built by the first lookup
+        assertThat(cube.findRoom(room.getId()), is(room));
+
+        Room added = new Room(2, randomAsciiOfLength(6), randomIntBetween(1000, 2000));
+        Device addedDevice = new Device(DeviceType.THERMOSTAST, randomAsciiOfLength(5), randomAsciiOfLength(12), randomIntBetween(3001, 4000));
+        cube.addRoom(added);
+        cube.addDevice(added, addedDevice);
+        assertThat(cube.findRoom(2), is(added));
+        assertThat(cube.findRoomForDevice(addedDevice.getRfaddress()), is(added));
+        assertThat(cube.getDevicesByRfAddress().get(addedDevice.getRfaddress()), is(addedDevice));
+        assertThat(cube.getDevicesBySerial().get(addedDevice.getSerial()), is(addedDevice));
+        assertThat(cube.getRoomsByName().get(added.getName()), is(added));
+        assertThat(cube.getRoomsById().size(), is(2));
+
+        // devices added to the lists directly are found as well
+        Device direct = new Device(DeviceType.SHUTTER_CONTACT, randomAsciiOfLength(5), randomAsciiOfLength(13), randomIntBetween(4001, 5000));
+        added.getDevices().add(direct);
+        assertThat(cube.findDeviceBySerial(direct.getSerial()), is(direct));
+        assertThat(cube.findRoomForDevice(direct.getRfaddress()), is(added));
+
+        expectThrows(UnsupportedOperationException.class, () -> cube.getRoomsById().put(3, added));
+    }
 }
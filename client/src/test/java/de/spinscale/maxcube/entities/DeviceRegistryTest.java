@@ -0,0 +1,64 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class DeviceRegistryTest extends CubeTestCase {
+
+    private final DeviceRegistry registry = new DeviceRegistry();
+
+    @Test
+    public void testRegisteringCubesAgainReplacesTheirDevices() {
+        Device first = new Device(DeviceType.THERMOSTAST, "first", "serial1", 0x100001);
+        Device second = new Device(DeviceType.WALLTHERMOSTAT, "second", "serial2", 0x100002);
+        Device other = new Device(DeviceType.SHUTTER_CONTACT, "other", "serial3", 0x200001);
+        Cube cube = cube(0x100000, first, second);
+        Cube otherCube = cube(0x200000, other);
+        registry.register(cube);
+        registry.register(otherCube);
+        assertThat(registry.getDevices(), contains(first, second, other));
+        assertThat(registry.findCube(0x200001).get(), is(otherCube));
+
+        // a new poll returns new instances, a device that has been removed from the cube is dropped
+        Device polledFirst = new Device(DeviceType.THERMOSTAST, "first", "serial1", 0x100001);
+        Cube polled = cube(0x100000, polledFirst);
+        registry.register(polled);
+        assertThat(registry.getDevices(), contains(polledFirst, other));
+        assertThat(registry.findDevice(0x100002).isPresent(), is(false));
+        assertThat(registry.findCube(0x100001).get(), is(polled));
+
+        registry.unregister(otherCube);
+        assertThat(registry.size(), is(1));
+    }
+
+    private Cube cube(int rfAddress, Device ... devices) {
+        Cube cube = new Cube(randomAsciiOfLength(10), rfAddress, "0113", LocalDateTime.now());
+        Room room = new Room(1, randomAsciiOfLength(5), devices[0].getRfaddress());
+        cube.addRoom(room);
+        for (Device device : devices) {
+            cube.addDevice(room, device);
+        }
+        return cube;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.entities;
+
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class IntTableTest extends CubeTestCase {
+
+    @Test
+    public void testBehavesLikeLinkedHashMap() {
+        IntTable<String> table = new IntTable<>(randomIntBetween(0, 10));
+        Map<Integer, String> expected = new LinkedHashMap<>();
+        // a small key range forces collisions, replacements and removals of existing keys
+        int keyRange = randomIntBetween(10, 2000);
+        int operations = randomIntBetween(100, 10000);
+        for (int i = 0; i < operations; i++) {
+            int key = randomIntBetween(0, keyRange) << 8;
+            String value = randomAsciiOfLength(3);
+            switch (randomInt(3)) {
+                case 0:
+                    assertThat(table.put(key, value), is(expected.put(key, value)));
+                    break;
+                case 1:
+                    assertThat(table.putIfAbsent(key, value), is(expected.putIfAbsent(key, value)));
+                    break;
+                case 2:
+                    assertThat(table.remove(key), is(expected.remove(key)));
+                    break;
+                default:
+                    assertThat(table.get(key), is(expected.get(key)));
+                    assertThat(table.containsKey(key), is(expected.containsKey(key)));
+            }
+            assertThat(table.size(), is(expected.size()));
+        }
+
+        List<Integer> keys = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        table.forEach((key, value) -> {
+            keys.add(key);
+            values.add(value);
+        });
+        assertThat(keys, is(new ArrayList<>(expected.keySet())));
+        assertThat(values, is(new ArrayList<>(expected.values())));
+        assertThat(table.values(), is(values));
+        for (int i = 0; i < keys.size(); i++) {
+            assertThat(table.keys()[i], is(keys.get(i)));
+        }
+        assertThat(table.asMap(), is(expected));
+        assertThat(new ArrayList<>(table.asMap().keySet()), is(keys));
+    }
+
+    @Test
+    public void testInsertionOrder() {
+        IntTable<String> table = new IntTable<>();
+        table.put(3, "three");
+        table.put(1, "one");
+        table.put(2, "two");
+        table.put(3, "drei");
+        table.remove(1);
+        table.put(1, "eins");
+        assertThat(table, contains("drei", "two", "eins"));
+        assertThat(table.toString(), is("{3=drei, 2=two, 1=eins}"));
+
+        table.clear();
+        assertThat(table.isEmpty(), is(true));
+        assertThat(table.get(3), is(nullValue()));
+    }
+
+    @Test
+    public void testModificationDuringIteration() {
+        IntTable<String> table = new IntTable<>();
+        table.put(1, "one");
+        table.put(2, "two");
+        expectThrows(ConcurrentModificationException.class, () -> table.forEach((key, value) -> table.put(key + 10, value)));
+        expectThrows(NullPointerException.class, () -> table.put(1, null));
+        expectThrows(UnsupportedOperationException.class, () -> table.asMap().put(3, "three"));
+        expectThrows(UnsupportedOperationException.class, () -> table.asMap().values().clear());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.metrics;
+
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+public class LatencyHistogramTest extends CubeTestCase {
+
+    @Test
+    public void testPercentilesAreWithinFactorOfTwo() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[randomIntBetween(1, 1000)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = randomLongBetween(0, 10_000_000_000L);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertThat(snapshot.getCount(), is((long) values.length));
+        assertThat(snapshot.getMaxNanos(), is(values[values.length - 1]));
+        assertThat(snapshot.getPercentileNanos(100), is(values[values.length - 1]));
+        for (double percentile : new double[] { 1, 50, 90, 99 }) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100.0) - 1];
+            long estimate = snapshot.getPercentileNanos(percentile);
+            assertThat(estimate, greaterThanOrEqualTo(exact));
+            assertThat(estimate, lessThan(Math.max(2, exact * 2)));
+        }
+    }
+
+    @Test
+    public void testEmptyHistogram() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertThat(snapshot.getPercentileNanos(99), is(0L));
+        assertThat(snapshot.getMeanNanos(), is(0L));
+        expectThrows(IllegalArgumentException.class, () -> snapshot.getPercentileNanos(101));
+    }
+
+    @Test
+    public void testUnknownMessageTypes() {
+        InMemoryCubeMetrics metrics = new InMemoryCubeMetrics();
+        metrics.messageReceived("cube", 'X', 10);
+        metrics.messageReceived("cube", 'L', 5);
+        CubeMetricsSnapshot snapshot = metrics.snapshot().get("cube");
+        assertThat(snapshot.getMessageCounts().get("?:"), is(1L));
+        assertThat(snapshot.getMessageCount('L'), is(1L));
+        assertThat(snapshot.getBytesReceived(), is(15L));
+    }
+}
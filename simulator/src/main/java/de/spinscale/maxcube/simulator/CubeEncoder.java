@@ -0,0 +1,237 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.data.Generator;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+
+import java.io.ByteArrayOutputStream;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes the lines a cube sends after a client connected, the counterpart of {@link Parser}
+ */
+public class CubeEncoder {
+
+    private CubeEncoder() {
+    }
+
+    /**
+     * @return All lines sent on connect, the header, the meta data, one configuration per device and the device list
+     */
+    public static List<String> writeConnectLines(Cube cube) {
+        List<String> lines = new ArrayList<>();
+        lines.add(writeHeader(cube));
+        lines.add(writeMeta(cube));
+        lines.add(writeConfiguration(cube));
+        for (Room room : cube.getRooms()) {
+            for (Device device : room.getDevices()) {
+                lines.add(writeConfiguration(device, room));
+            }
+        }
+        lines.add(writeDeviceList(cube));
+        return lines;
+    }
+
+    /**
+     * H:KEQ0537741,0b9792,0113,00000000,78c816bb,01,32,11010f,0d22,03,0000
+     */
+    public static String writeHeader(Cube cube) {
+        LocalDateTime date = cube.getDate();
+        String firmwareVersion = "0" + cube.getFirmwareVersion().replace(".", "");
+        return String.format(Locale.ROOT, "H:%s,%06x,%s,00000000,%08x,%02x,%02x,%02x%02x%02x,%02x%02x,03,0000",
+                cube.getSerial(), cube.getRfaddress(), firmwareVersion, cube.getSerial().hashCode(),
+                cube.getDutyCycle(), cube.getFreeMemorySlots(),
+                date.getYear() - 2000, date.getMonthValue(), date.getDayOfMonth(), date.getHour(), date.getMinute());
+    }
+
+    /**
+     * M:00,01,BASE64 with all rooms and devices
+     */
+    public static String writeMeta(Cube cube) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        // unknown, always the same on real cubes
+        bos.write(0x56);
+        bos.write(0x02);
+
+        bos.write(cube.getRooms().size());
+        for (Room room : cube.getRooms()) {
+            bos.write(room.getId());
+            writeString(room.getName(), bos);
+            Generator.writeRfAddress(room.getRfaddress(), bos);
+        }
+
+        int deviceCount = cube.getRooms().stream().mapToInt(room -> room.getDevices().size()).sum();
+        bos.write(deviceCount);
+        for (Room room : cube.getRooms()) {
+            for (Device device : room.getDevices()) {
+                bos.write(device.getType().getId());
+                Generator.writeRfAddress(device.getRfaddress(), bos);
+                bos.write(device.getSerial().getBytes(UTF_8), 0, 10);
+                writeString(device.getName(), bos);
+                bos.write(room.getId());
+            }
+        }
+
+        // unknown
+        bos.write(0x01);
+        return "M:00,01," + Base64.getEncoder().encodeToString(bos.toByteArray());
+    }
+
+    /**
+     * C:0b9792,BASE64 with the configuration of the cube itself
+     */
+    public static String writeConfiguration(Cube cube) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeConfigurationHeader(cube, 0, bos);
+        // the cube configuration is skipped by the parser, just add the portal url
+        byte[] portal = "http://www.max-portal.elv.de:80".getBytes(UTF_8);
+        bos.write(portal, 0, portal.length);
+        return configurationLine(cube.getRfaddress(), bos);
+    }
+
+    /**
+     * C:0b7183,BASE64 with the configuration of a device, thermostats include the temperatures and the weekly program
+     */
+    public static String writeConfiguration(Device device, Room room) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeConfigurationHeader(device, room.getId(), bos);
+
+        if (device.getType() == DeviceType.THERMOSTAST || device.getType() == DeviceType.THERMOSTAST_PLUS) {
+            bos.write(42); // comfort temperature, 21.0
+            bos.write(34); // eco temperature, 17.0
+            bos.write(61); // maximum set point, 30.5
+            bos.write(9);  // minimum set point, 4.5
+            bos.write(7);  // temperature offset, 0.0
+            bos.write(24); // window open temperature, 12.0
+            bos.write(3);  // window open duration
+            bos.write(5);  // boost duration and valve position
+            bos.write(12); // decalcification
+            bos.write(255); // maximum valve setting
+            bos.write(0);  // valve offset
+            // weekly program, 7 days with 13 switch points each, 17 degrees all day
+            for (int i = 0; i < 7 * 13; i++) {
+                bos.write(0x45);
+                bos.write(0x20);
+            }
+        }
+
+        return configurationLine(device.getRfaddress(), bos);
+    }
+
+    /**
+     * L:BASE64 with the current state of all devices
+     */
+    public static String writeDeviceList(Cube cube) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (Room room : cube.getRooms()) {
+            for (Device device : room.getDevices()) {
+                writeDeviceState(device, room, bos);
+            }
+        }
+        return "L:" + Base64.getEncoder().encodeToString(bos.toByteArray());
+    }
+
+    static void writeDeviceState(Device device, Room room, ByteArrayOutputStream bos) {
+        Parser.Mode mode = device.getMode() == null ? Parser.Mode.AUTO : device.getMode();
+        if (device.getType() == DeviceType.SHUTTER_CONTACT) {
+            // the window state is encoded like the vacation mode
+            mode = room.isWindowOpen() ? Parser.Mode.VACATION : Parser.Mode.AUTO;
+        }
+
+        int length;
+        if (device.getType() == DeviceType.WALLTHERMOSTAT) {
+            length = 12;
+        } else if (device.getType().isThermostat()) {
+            length = 11;
+        } else {
+            length = 6;
+        }
+
+        bos.write(length);
+        Generator.writeRfAddress(device.getRfaddress(), bos);
+        bos.write(0x09); // unknown
+        bos.write(0x12); // valid, no error
+        // dst active and gateway known, plus battery and mode
+        bos.write(0x18 | (device.isLowBattery() ? 0x80 : 0) | modeBits(mode));
+        if (length == 6) {
+            return;
+        }
+
+        bos.write(room.getValvePositionInPercent());
+        bos.write((int) Math.round(room.getConfiguredTemperature() * 2));
+        if (mode == Parser.Mode.VACATION) {
+            // the parser expects the end date instead of the temperature
+            LocalDateTime endTime = device.getEndTime() == null ? LocalDateTime.now().plusDays(1) : device.getEndTime();
+            Generator.writeDateTimeUntil(endTime, bos);
+        } else {
+            bos.write(0);
+            bos.write((int) Math.round(room.getCurrentTemperature() * 10));
+            bos.write(0);
+        }
+        if (length == 12) {
+            // the actual temperature measured by the wall thermostat
+            bos.write((int) Math.round(room.getCurrentTemperature() * 10));
+        }
+    }
+
+    private static int modeBits(Parser.Mode mode) {
+        switch (mode) {
+            case MANUAL:
+                return 1;
+            case VACATION:
+                return 2;
+            case BOOST:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    private static void writeConfigurationHeader(Device device, int roomId, ByteArrayOutputStream bos) {
+        // the length is written when creating the line
+        Generator.writeRfAddress(device.getRfaddress(), bos);
+        bos.write(device.getType().getId());
+        bos.write(roomId);
+        bos.write(0x10); // firmware
+        bos.write(0x00); // test result
+        bos.write(device.getSerial().getBytes(UTF_8), 0, 10);
+    }
+
+    private static String configurationLine(int rfAddress, ByteArrayOutputStream bos) {
+        byte[] data = bos.toByteArray();
+        byte[] withLength = new byte[data.length + 1];
+        withLength[0] = (byte) data.length;
+        System.arraycopy(data, 0, withLength, 1, data.length);
+        return String.format(Locale.ROOT, "C:%06x,%s", rfAddress, Base64.getEncoder().encodeToString(withLength));
+    }
+
+    private static void writeString(String value, ByteArrayOutputStream bos) {
+        byte[] bytes = value.getBytes(UTF_8);
+        bos.write(bytes.length);
+        bos.write(bytes, 0, bytes.length);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.Room;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.codec.textline.LineDelimiter;
+import org.apache.mina.filter.codec.textline.TextLineCodecFactory;
+import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A TCP server speaking the protocol of a MAX! cube. It sends the {@code H:}, {@code M:}, {@code C:} and {@code L:}
+ * lines of its model on connect, replies to {@code l:} with the current device list and applies {@code s:} commands
+ * to the model, replying with {@code S:}.
+ *
+ * Every accepted command uses some of the duty cycle, which recovers linearly within an hour. Once it would exceed
+ * 100 percent, commands are rejected like a real cube does. Replies can be delayed and connections dropped randomly.
+ */
+public class CubeSimulator implements Closeable {
+
+    // the duty cycle covers one hour, so one percent recovers every 36 seconds
+    private static final long RECOVERY_NANOS_PER_PERCENT = TimeUnit.SECONDS.toNanos(36);
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final Cube cube;
+    private final NioSocketAcceptor acceptor;
+    private final ScheduledExecutorService scheduler;
+    private final Random random;
+    private final AtomicInteger commandCount = new AtomicInteger();
+    private volatile Duration latency = Duration.ZERO;
+    private volatile double disconnectProbability;
+    private volatile int dutyCycleCostPerCommand = 1;
+    // guarded by the cube
+    private long dutyCycleNanos;
+    private long dutyCycleUpdatedAt = System.nanoTime();
+
+    public CubeSimulator(Cube cube) {
+        this(cube, new Random());
+    }
+
+    /**
+     * @param cube      The model to serve, changed by the received commands
+     * @param random    Decides which commands lead to a disconnect
+     */
+    public CubeSimulator(Cube cube, Random random) {
+        this.cube = cube;
+        this.random = random;
+        this.acceptor = new NioSocketAcceptor(1);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "simulator-" + cube.getSerial());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * The time to wait before sending each reply and the lines on connect
+     */
+    public void setLatency(Duration latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * The probability to drop the connection instead of replying to a command, between 0 and 1
+     */
+    public void setDisconnectProbability(double disconnectProbability) {
+        this.disconnectProbability = disconnectProbability;
+    }
+
+    /**
+     * The duty cycle in percent used by every accepted command
+     */
+    public void setDutyCycleCostPerCommand(int dutyCycleCostPerCommand) {
+        this.dutyCycleCostPerCommand = dutyCycleCostPerCommand;
+    }
+
+    /**
+     * Sets the currently used duty cycle, 100 rejects all commands until it has recovered
+     */
+    public void setDutyCycle(int dutyCycle) {
+        synchronized (cube) {
+            dutyCycleNanos = dutyCycle * RECOVERY_NANOS_PER_PERCENT;
+            dutyCycleUpdatedAt = System.nanoTime();
+        }
+    }
+
+    public int getDutyCycle() {
+        synchronized (cube) {
+            return (int) ((recoverDutyCycle() + RECOVERY_NANOS_PER_PERCENT - 1) / RECOVERY_NANOS_PER_PERCENT);
+        }
+    }
+
+    public Cube getCube() {
+        return cube;
+    }
+
+    /**
+     * @return The number of commands received since the start, including rejected ones
+     */
+    public int getCommandCount() {
+        return commandCount.get();
+    }
+
+    /**
+     * @param port The port to listen on, 0 picks a free one
+     */
+    public void start(int port) throws IOException {
+        TextLineCodecFactory codecFactory = new TextLineCodecFactory(UTF_8, LineDelimiter.CRLF, LineDelimiter.AUTO);
+        codecFactory.setDecoderMaxLineLength(64 * 1024);
+        codecFactory.setEncoderMaxLineLength(64 * 1024);
+        acceptor.getFilterChain().addLast("codec", new ProtocolCodecFilter(codecFactory));
+        acceptor.setHandler(new SimulatorHandler());
+        acceptor.setReuseAddress(true);
+        acceptor.setCloseOnDeactivation(true);
+        acceptor.bind(new InetSocketAddress(port));
+        logger.info("Simulated cube [{}] listening on [{}]", cube.getSerial(), acceptor.getLocalAddress());
+    }
+
+    public int getPort() {
+        return acceptor.getLocalAddress().getPort();
+    }
+
+    /**
+     * Drops all connections, like a rebooting cube
+     */
+    public void disconnectAll() {
+        acceptor.getManagedSessions().values().forEach(IoSession::closeNow);
+    }
+
+    @Override
+    public void close() throws IOException {
+        acceptor.dispose(true);
+        scheduler.shutdownNow();
+    }
+
+    // the cube lock must be held
+    private long recoverDutyCycle() {
+        long now = System.nanoTime();
+        dutyCycleNanos = Math.max(0, dutyCycleNanos - (now - dutyCycleUpdatedAt));
+        dutyCycleUpdatedAt = now;
+        return dutyCycleNanos;
+    }
+
+    private List<String> connectLines() {
+        synchronized (cube) {
+            cube.setDutyCycle(getDutyCycle());
+            return CubeEncoder.writeConnectLines(cube);
+        }
+    }
+
+    private String deviceList() {
+        synchronized (cube) {
+            return CubeEncoder.writeDeviceList(cube);
+        }
+    }
+
+    /**
+     * Applies a set temperature command to the model
+     * @return The S: reply
+     */
+    String applyCommand(String command) {
+        synchronized (cube) {
+            long cost = dutyCycleCostPerCommand * RECOVERY_NANOS_PER_PERCENT;
+            boolean accepted = recoverDutyCycle() + cost <= 100 * RECOVERY_NANOS_PER_PERCENT;
+            if (accepted) {
+                try {
+                    setTemperature(Base64.getDecoder().decode(command.substring(2)));
+                    dutyCycleNanos += cost;
+                } catch (IllegalArgumentException e) {
+                    logger.debug("Rejecting command [{}]: {}", command, e.getMessage());
+                    accepted = false;
+                }
+            }
+            return String.format(Locale.ROOT, "S:%02x,%s,%02x", getDutyCycle(), accepted ? "0" : "1", cube.getFreeMemorySlots());
+        }
+    }
+
+    // see CommandEncoder for the format
+    private void setTemperature(byte[] data) {
+        if (data.length < 11) {
+            throw new IllegalArgumentException("Command too short");
+        }
+        ByteArrayInputStream bis = new ByteArrayInputStream(data);
+        bis.skip(6); // unknown, rf flags, command and rf address from
+        int rfAddress = Parser.readRfAddress(bis);
+        int roomId = bis.read();
+        int modeAndTemperature = bis.read();
+
+        Room room = cube.findRoom(roomId);
+        Parser.Mode mode = Parser.Mode.from(modeAndTemperature >> 6);
+        double temperature = (modeAndTemperature & 0x3f) / 2.0;
+        LocalDateTime endTime = null;
+        if (mode == Parser.Mode.VACATION) {
+            int first = bis.read();
+            int second = bis.read();
+            int halfHours = bis.read();
+            int month = (first >> 5 << 1) + (second >> 7 & 1);
+            endTime = LocalDateTime.of((second & 31) + 2000, month, first & 31, halfHours / 2, (halfHours % 2) * 30);
+        }
+
+        for (Device device : room.getDevices()) {
+            // no target address means all thermostats of the room
+            if (device.getType().isThermostat() && (rfAddress == 0 || device.getRfaddress() == rfAddress)) {
+                device.setMode(mode);
+                device.setEndTime(endTime);
+            }
+        }
+        if (mode != Parser.Mode.BOOST && temperature > 0) {
+            room.setConfiguredTemperature(temperature);
+        }
+    }
+
+    private void write(IoSession session, List<String> lines) {
+        long delay = latency.toMillis();
+        if (delay == 0) {
+            lines.forEach(session::write);
+        } else {
+            scheduler.schedule(() -> lines.forEach(session::write), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private class SimulatorHandler extends IoHandlerAdapter {
+
+        @Override
+        public void sessionOpened(IoSession session) throws Exception {
+            logger.debug("Client connected from [{}]", session.getRemoteAddress());
+            write(session, connectLines());
+        }
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            String line = message.toString().trim();
+            if (line.isEmpty()) {
+                return;
+            }
+
+            if (line.startsWith("q:")) {
+                session.closeOnFlush();
+                return;
+            }
+
+            commandCount.incrementAndGet();
+            if (disconnectProbability > 0 && random.nextDouble() < disconnectProbability) {
+                logger.debug("Dropping connection on [{}]", line);
+                session.closeNow();
+                return;
+            }
+
+            if (line.startsWith("s:")) {
+                write(session, Collections.singletonList(applyCommand(line)));
+            } else if (line.startsWith("l:")) {
+                write(session, Collections.singletonList(deviceList()));
+            } else {
+                logger.debug("Ignoring unknown command [{}]", line);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            logger.warn("Exception in session from [{}]", session.getRemoteAddress(), cause);
+            session.closeNow();
+        }
+    }
+}
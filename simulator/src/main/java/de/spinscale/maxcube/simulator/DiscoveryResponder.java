@@ -0,0 +1,136 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.data.Generator;
+import de.spinscale.maxcube.discovery.MinaDiscoveryClient;
+import de.spinscale.maxcube.entities.Cube;
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.service.IoHandlerAdapter;
+import org.apache.mina.core.session.ExpiringSessionRecycler;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.session.IoSessionRecycler;
+import org.apache.mina.transport.socket.nio.NioDatagramAcceptor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Answers the UDP broadcast sent by {@link MinaDiscoveryClient} for each simulated cube. Like a real cube,
+ * the answer is sent to the discovery port of the sender and not to the port the broadcast came from
+ */
+public class DiscoveryResponder implements Closeable {
+
+    public static final int PORT = 23272;
+
+    private final Logger logger = LoggerFactory.getLogger(getClass());
+    private final List<Cube> cubes;
+    private final int replyPort;
+    private final NioDatagramAcceptor acceptor;
+
+    /**
+     * @param cubes     The cubes to announce, one reply per cube
+     * @param replyPort The port the discovery client listens on for replies
+     */
+    public DiscoveryResponder(List<Cube> cubes, int replyPort) {
+        this.cubes = cubes;
+        this.replyPort = replyPort;
+        this.acceptor = new NioDatagramAcceptor();
+    }
+
+    /**
+     * @param port The port to listen for discovery broadcasts, 0 picks a free one
+     */
+    public void start(int port) throws IOException {
+        acceptor.setHandler(new DiscoveryHandler());
+        acceptor.getSessionConfig().setReuseAddress(true);
+        acceptor.setCloseOnDeactivation(true);
+        acceptor.bind(new InetSocketAddress(port));
+        logger.info("Discovery responder for [{}] cubes listening on [{}]", cubes.size(), acceptor.getLocalAddress());
+    }
+
+    public int getPort() {
+        return acceptor.getLocalAddress().getPort();
+    }
+
+    /**
+     * eQ3MaxAp + serial + >I + rf address + firmware version
+     */
+    static byte[] writeDiscoveryReply(Cube cube) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] prefix = "eQ3MaxAp".getBytes(UTF_8);
+        bos.write(prefix, 0, prefix.length);
+        bos.write(cube.getSerial().getBytes(UTF_8), 0, 10);
+        bos.write('>');
+        bos.write('I');
+        Generator.writeRfAddress(cube.getRfaddress(), bos);
+        // firmware 1.1.3 is sent as 0x01 0x13
+        bos.write(0x01);
+        bos.write(0x13);
+        return bos.toByteArray();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // see MinaDiscoveryClient, expiring is not stopped by the acceptor
+        IoSessionRecycler sessionRecycler = acceptor.getSessionRecycler();
+        if (sessionRecycler instanceof ExpiringSessionRecycler) {
+            ((ExpiringSessionRecycler) sessionRecycler).stopExpiring();
+        }
+        acceptor.dispose(true);
+    }
+
+    private class DiscoveryHandler extends IoHandlerAdapter {
+
+        @Override
+        public void messageReceived(IoSession session, Object message) throws Exception {
+            if (!(message instanceof IoBuffer) || !(session.getRemoteAddress() instanceof InetSocketAddress)) {
+                return;
+            }
+            IoBuffer buffer = (IoBuffer) message;
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            // replies of other cubes do not contain the wildcard
+            if (!new String(data, UTF_8).startsWith("eQ3Max*")) {
+                return;
+            }
+
+            InetSocketAddress sender = (InetSocketAddress) session.getRemoteAddress();
+            try (DatagramSocket socket = new DatagramSocket()) {
+                for (Cube cube : cubes) {
+                    byte[] reply = writeDiscoveryReply(cube);
+                    socket.send(new DatagramPacket(reply, reply.length, sender.getAddress(), replyPort));
+                }
+            }
+            logger.debug("Answered discovery from [{}] with [{}] cubes", sender, cubes.size());
+        }
+
+        @Override
+        public void exceptionCaught(IoSession session, Throwable cause) throws Exception {
+            logger.warn("Exception in discovery session from [{}]", session.getRemoteAddress(), cause);
+            session.closeNow();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the rooms and devices of a simulated cube
+ */
+public class ModelGenerator {
+
+    // the devices of a room after its thermostat, cycled through
+    private static final DeviceType[] ADDITIONAL_TYPES = new DeviceType[] {
+            DeviceType.SHUTTER_CONTACT, DeviceType.THERMOSTAST, DeviceType.WALLTHERMOSTAT, DeviceType.PUSH_BUTTON
+    };
+
+    private ModelGenerator() {
+    }
+
+    /**
+     * Creates a cube with the given number of rooms and devices. Every room has a thermostat first, so it can be boosted,
+     * the remaining devices are spread evenly across all rooms
+     * @param id            Used to derive the serials and rf addresses, should be unique per simulated cube
+     * @param roomCount     The number of rooms, between 1 and 255
+     * @param deviceCount   The number of devices, between the room count and 255
+     * @param random        Used to create the initial temperatures and valve positions
+     */
+    public static Cube generate(int id, int roomCount, int deviceCount, Random random) {
+        if (roomCount < 1 || roomCount > 255) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Room count [%s] must be between 1 and 255", roomCount));
+        }
+        if (deviceCount < roomCount || deviceCount > 255) {
+            throw new IllegalArgumentException(String.format(Locale.ROOT, "Device count [%s] must be between the room count [%s] and 255",
+                    deviceCount, roomCount));
+        }
+
+        // rf addresses are three bytes, the upper byte separates the cubes
+        int baseRfAddress = (id % 255 + 1) << 16;
+        Cube cube = new Cube(serial("KEQ", id), baseRfAddress, "1.1.3", LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES));
+        cube.setFreeMemorySlots(50);
+
+        int deviceId = 1;
+        for (int i = 1; i <= roomCount; i++) {
+            int devicesInRoom = deviceCount / roomCount + (i <= deviceCount % roomCount ? 1 : 0);
+            int thermostatRfAddress = baseRfAddress + deviceId;
+            Room room = new Room(i, "Room " + i, thermostatRfAddress);
+            for (int j = 0; j < devicesInRoom; j++) {
+                DeviceType type = j == 0 ? DeviceType.THERMOSTAST : ADDITIONAL_TYPES[(j - 1) % ADDITIONAL_TYPES.length];
+                Device device = new Device(type, type.name().toLowerCase(Locale.ROOT) + " " + i + "-" + j,
+                        serial("LEQ", id * 10000 + deviceId), baseRfAddress + deviceId);
+                device.setMode(Parser.Mode.AUTO);
+                room.getDevices().add(device);
+                deviceId++;
+            }
+
+            room.setConfiguredTemperature(21.0);
+            // the device list can only encode temperatures up to 25.5 degrees
+            room.setCurrentTemperature((150 + random.nextInt(100)) / 10.0);
+            room.setValvePositionInPercent(random.nextInt(101));
+            cube.getRooms().add(room);
+        }
+
+        return cube;
+    }
+
+    private static String serial(String prefix, int number) {
+        return String.format(Locale.ROOT, "%s%07d", prefix, number % 10_000_000);
+    }
+}
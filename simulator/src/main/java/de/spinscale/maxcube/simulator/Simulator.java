@@ -0,0 +1,71 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.entities.Cube;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Starts a fleet of simulated cubes on consecutive ports, plus a discovery responder announcing all of them
+ *
+ * Usage: Simulator [cubes] [rooms] [devices] [base port] [latency in ms]
+ */
+public class Simulator {
+
+    public static void main(String[] args) throws Exception {
+        int cubeCount = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int roomCount = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int deviceCount = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int basePort = args.length > 3 ? Integer.parseInt(args[3]) : 62910;
+        Duration latency = Duration.ofMillis(args.length > 4 ? Long.parseLong(args[4]) : 0);
+
+        Random random = new Random();
+        List<CubeSimulator> simulators = new ArrayList<>(cubeCount);
+        List<Cube> cubes = new ArrayList<>(cubeCount);
+        for (int i = 0; i < cubeCount; i++) {
+            Cube cube = ModelGenerator.generate(i, roomCount, deviceCount, random);
+            CubeSimulator simulator = new CubeSimulator(cube, random);
+            simulator.setLatency(latency);
+            simulator.start(basePort + i);
+            simulators.add(simulator);
+            cubes.add(cube);
+        }
+
+        DiscoveryResponder responder = new DiscoveryResponder(cubes, DiscoveryResponder.PORT);
+        responder.start(DiscoveryResponder.PORT);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                responder.close();
+                for (CubeSimulator simulator : simulators) {
+                    simulator.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+
+        System.out.println(String.format(Locale.ROOT, "Simulating [%s] cubes on ports [%s-%s]", cubeCount, basePort, basePort + cubeCount - 1));
+        new CountDownLatch(1).await();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.DeviceType;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+
+public class CubeEncoderTest extends CubeTestCase {
+
+    @Test
+    public void testGeneratedModelCanBeParsed() throws Exception {
+        int roomCount = randomIntBetween(1, 20);
+        int deviceCount = randomIntBetween(roomCount, roomCount * 4);
+        Cube model = ModelGenerator.generate(randomIntBetween(0, 1000), roomCount, deviceCount, getRandom());
+        model.setDutyCycle(randomIntBetween(0, 100));
+
+        Cube cube = parse(CubeEncoder.writeConnectLines(model));
+        assertThat(cube.getSerial(), is(model.getSerial()));
+        assertThat(cube.getRfaddress(), is(model.getRfaddress()));
+        assertThat(cube.getFirmwareVersion(), is("1.1.3"));
+        assertThat(cube.getDate(), is(model.getDate()));
+        assertThat(cube.getDutyCycle(), is(model.getDutyCycle()));
+        assertThat(cube.getFreeMemorySlots(), is(model.getFreeMemorySlots()));
+        assertThat(cube.getRooms(), hasSize(roomCount));
+        assertThat(cube.getRooms().stream().mapToInt(room -> room.getDevices().size()).sum(), is(deviceCount));
+
+        for (Room expected : model.getRooms()) {
+            Room room = cube.findRoom(expected.getId());
+            assertThat(room.getName(), is(expected.getName()));
+            assertThat(room.getCurrentTemperature(), is(expected.getCurrentTemperature()));
+            assertThat(room.getConfiguredTemperature(), is(expected.getConfiguredTemperature()));
+            assertThat(room.getValvePositionInPercent(), is(expected.getValvePositionInPercent()));
+            assertThat(room.isWindowOpen(), is(false));
+            for (Device device : expected.getDevices()) {
+                Device parsed = cube.findDeviceBySerial(device.getSerial());
+                assertThat(parsed.getType(), is(device.getType()));
+                assertThat(parsed.getRfaddress(), is(device.getRfaddress()));
+                assertThat(parsed.getName(), is(device.getName()));
+                assertThat(parsed.getConfiguration(), is(notNullValue()));
+            }
+        }
+    }
+
+    @Test
+    public void testDeviceStates() throws Exception {
+        Cube model = ModelGenerator.generate(1, 2, 4, getRandom());
+        Room room = model.findRoom(1);
+        Device thermostat = room.findThermostat();
+        LocalDateTime endTime = LocalDateTime.of(2017, 3, 12, 18, 30);
+        thermostat.setMode(Parser.Mode.VACATION);
+        thermostat.setEndTime(endTime);
+        thermostat.setLowBattery(true);
+        room.setWindowOpen(true);
+        model.findRoom(2).findThermostat().setMode(Parser.Mode.BOOST);
+
+        Cube cube = parse(CubeEncoder.writeConnectLines(model));
+        Device parsedThermostat = cube.findRoom(1).findThermostat();
+        assertThat(parsedThermostat.getMode(), is(Parser.Mode.VACATION));
+        assertThat(parsedThermostat.getEndTime(), is(endTime));
+        assertThat(parsedThermostat.isLowBattery(), is(true));
+        assertThat(cube.findRoom(1).isWindowOpen(), is(true));
+        assertThat(cube.findRoom(1).getDevices().get(1).getType(), is(DeviceType.SHUTTER_CONTACT));
+        assertThat(cube.findRoom(2).findThermostat().getMode(), is(Parser.Mode.BOOST));
+        assertThat(cube.findRoom(2).isWindowOpen(), is(false));
+    }
+
+    @Test
+    public void testDeviceCountFitsIntoOneByte() {
+        int roomCount = randomIntBetween(1, 255);
+        IllegalArgumentException e = expectThrows(IllegalArgumentException.class,
+                () -> ModelGenerator.generate(1, roomCount, randomIntBetween(256, 1000), getRandom()));
+        assertThat(e.getMessage(), containsString("must be between the room count [" + roomCount + "] and 255"));
+    }
+
+    private Cube parse(List<String> lines) throws Exception {
+        Parser parser = new Parser();
+        Cube cube = parser.parseHeader(lines.get(0));
+        for (int i = 1; i < lines.size(); i++) {
+            parser.parse(cube, lines.get(i));
+        }
+        return cube;
+    }
+}
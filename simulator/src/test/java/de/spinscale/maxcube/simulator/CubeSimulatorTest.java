@@ -0,0 +1,187 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.client.SocketCubeClient;
+import de.spinscale.maxcube.data.Parser;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.entities.Device;
+import de.spinscale.maxcube.entities.Room;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class CubeSimulatorTest extends CubeTestCase {
+
+    private CubeSimulator simulator;
+
+    @Before
+    public void startSimulator() throws Exception {
+        simulator = new CubeSimulator(ModelGenerator.generate(randomIntBetween(0, 100), 5, 12, getRandom()), getRandom());
+        simulator.start(0);
+    }
+
+    @After
+    public void stopSimulator() throws Exception {
+        simulator.close();
+    }
+
+    @Test
+    public void testClientReadsModel() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            Cube cube = client.connect();
+            assertThat(cube.getSerial(), is(simulator.getCube().getSerial()));
+            assertThat(cube.getRooms(), hasSize(5));
+            assertThat(cube.getRooms().stream().mapToInt(room -> room.getDevices().size()).sum(), is(12));
+        }
+    }
+
+    @Test
+    public void testCommandsChangeModel() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            Cube cube = client.connect();
+            Room livingRoom = cube.findRoom(1);
+            assertThat(client.boost(livingRoom), is(true));
+            assertThat(simulator.getCube().findRoom(1).findThermostat().getMode(), is(Parser.Mode.BOOST));
+
+            Room bedroom = cube.findRoom(2);
+            assertThat(client.holiday(bedroom, LocalDateTime.now().plusDays(1), 18), is(true));
+            assertThat(simulator.getCube().findRoom(2).getConfiguredTemperature(), is(18.0));
+
+            client.refresh();
+            assertThat(livingRoom.findThermostat().getMode(), is(Parser.Mode.BOOST));
+            assertThat(bedroom.findThermostat().getMode(), is(Parser.Mode.VACATION));
+            assertThat(bedroom.getConfiguredTemperature(), is(18.0));
+            assertThat(simulator.getCommandCount(), is(3));
+            assertThat(simulator.getDutyCycle(), is(2));
+        }
+    }
+
+    @Test
+    public void testSingleCommandReachesAllThermostatsOfRoom() throws Exception {
+        // thermostat, shutter contact, thermostat and wall thermostat in a single room
+        try (CubeSimulator roomSimulator = new CubeSimulator(ModelGenerator.generate(1, 1, 4, getRandom()), getRandom())) {
+            roomSimulator.start(0);
+            try (SocketCubeClient client = new SocketCubeClient("localhost", roomSimulator.getPort())) {
+                Cube cube = client.connect();
+                assertThat(cube.findRoom(1).getThermostatCount(), is(3));
+                assertThat(client.boost(cube.findRoom(1)), is(true));
+            }
+            assertThat(roomSimulator.getCommandCount(), is(1));
+            for (Device device : roomSimulator.getCube().findRoom(1).getDevices()) {
+                if (device.getType().isThermostat()) {
+                    assertThat(device.getMode(), is(Parser.Mode.BOOST));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRedundantHolidayIsSuppressedAndVerified() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            client.setSuppressRedundantCommands(true);
+            Cube cube = client.connect();
+            Room bedroom = cube.findRoom(2);
+            LocalDateTime endTime = LocalDateTime.now().plusDays(1);
+            assertThat(client.holiday(bedroom, endTime, 18), is(true));
+            client.refresh();
+
+            // the device list shows the room in holiday mode already, only the holiday and the refresh reach the cube
+            assertThat(client.holiday(bedroom, endTime, 18), is(true));
+            assertThat(simulator.getCommandCount(), is(2));
+
+            // the room left holiday mode without the client noticing, so the next refresh sends the command after all
+            for (Device device : simulator.getCube().findRoom(2).getDevices()) {
+                device.setMode(Parser.Mode.AUTO);
+            }
+            client.refresh();
+            // the cube replies in order, so the command has been handled once the next device list arrives
+            client.refresh();
+            // two refreshes and the holiday sent after all
+            assertThat(simulator.getCommandCount(), is(5));
+            assertThat(bedroom.findThermostat().getMode(), is(Parser.Mode.VACATION));
+        }
+    }
+
+    @Test
+    public void testExhaustedDutyCycleRejectsCommands() throws Exception {
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            Cube cube = client.connect();
+            simulator.setDutyCycle(100);
+            assertThat(client.boost(cube.findRoom(1)), is(false));
+            assertThat(simulator.getCube().findRoom(1).findThermostat().getMode(), is(Parser.Mode.AUTO));
+            assertThat(cube.getDutyCycle(), is(100));
+        }
+    }
+
+    @Test
+    public void testClientQueuesCommandsWhenDutyCycleIsExhausted() throws Exception {
+        simulator.setDutyCycle(100);
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            Cube cube = client.connect();
+            assertThat(cube.getDutyCycle(), is(100));
+
+            // by default a command that cannot be sent within the command timeout fails right away
+            ExecutionException e = expectThrows(ExecutionException.class, client.sendBoost(cube.findRoom(1), Duration.ofSeconds(5))::get);
+            assertThat(e.getCause(), instanceOf(TimeoutException.class));
+            assertThat(client.getCommandScheduler().getQueueDepth(), is(0));
+
+            client.getCommandScheduler().setMaxQueueWait(null);
+            CompletableFuture<Boolean> boost = client.sendBoost(cube.findRoom(1), Duration.ofSeconds(5));
+            assertThat(boost.isDone(), is(false));
+            assertThat(client.getCommandScheduler().getQueueDepth(), is(1));
+            assertThat(simulator.getCommandCount(), is(0));
+        }
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        simulator.setDisconnectProbability(1.0);
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            Cube cube = client.connect();
+            expectThrows(IOException.class, () -> client.boost(cube.findRoom(1)));
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        simulator.setLatency(Duration.ofMillis(200));
+        long start = System.nanoTime();
+        try (SocketCubeClient client = new SocketCubeClient("localhost", simulator.getPort())) {
+            client.connect();
+            client.refresh();
+        }
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), is(greaterThanOrEqualTo(400L)));
+    }
+}
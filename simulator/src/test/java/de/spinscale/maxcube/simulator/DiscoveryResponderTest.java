@@ -0,0 +1,71 @@
+/*
+ * Copyright [2017] [Alexander Reelsen]
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.spinscale.maxcube.simulator;
+
+import com.carrotsearch.randomizedtesting.annotations.ThreadLeakLingering;
+import de.spinscale.maxcube.discovery.MinaDiscoveryClient;
+import de.spinscale.maxcube.entities.Cube;
+import de.spinscale.maxcube.test.CubeTestCase;
+import org.junit.Test;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+// mina services return from dispose before their processor threads have ended
+@ThreadLeakLingering(linger = 5000)
+public class DiscoveryResponderTest extends CubeTestCase {
+
+    @Test
+    public void testRepliesToDiscovery() throws Exception {
+        Cube first = ModelGenerator.generate(1, 1, 1, getRandom());
+        Cube second = ModelGenerator.generate(2, 1, 1, getRandom());
+        InetAddress localhost = InetAddress.getLoopbackAddress();
+
+        try (DatagramSocket receiver = new DatagramSocket(0, localhost);
+             DiscoveryResponder responder = new DiscoveryResponder(Arrays.asList(first, second), receiver.getLocalPort())) {
+            responder.start(0);
+            receiver.setSoTimeout(5000);
+
+            try (DatagramSocket sender = new DatagramSocket()) {
+                byte[] data = MinaDiscoveryClient.DISCOVERY_BYTES;
+                sender.send(new DatagramPacket(data, data.length, localhost, responder.getPort()));
+            }
+
+            Set<String> serials = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+                DatagramPacket packet = new DatagramPacket(new byte[64], 64);
+                receiver.receive(packet);
+                // parsed the same way as the discovery client does
+                String reply = new String(packet.getData(), 0, packet.getLength(), UTF_8);
+                assertThat(reply, not(containsString("*")));
+                assertThat(reply.startsWith("eQ3MaxAp"), is(true));
+                serials.add(reply.substring(8, 18));
+            }
+            assertThat(serials, containsInAnyOrder(first.getSerial(), second.getSerial()));
+        }
+    }
+}